@@ -1,10 +1,17 @@
 #include <jni.h>
 
 #include <string>
+#include <cstring>
+#include <cstddef>
 #include <cmath>
 #include <vector>
 #include <thread>
 #include <atomic>
+#include <chrono>
+#include <algorithm>
+#include <unordered_map>
+#include <mutex>
+#include <condition_variable>
 
 #include "jnipp/jnipp.h"
 
@@ -16,18 +23,16 @@
 struct Cursor {
 
     struct CursorRow {
-        char* series;
-        double* values;
-        size_t len_values;
+        const char* series{};   //! Owned by the cursor, valid until the cursor is closed
+        int series_id{-1};      //! Dense per-cursor id of the series
+        double* values{};
+        size_t len_values{};
         aku_Timestamp timestamp{};
 
         ~CursorRow() {
             if (values) {
                 delete []values;
             }
-            if (series) {
-                delete []series;
-            }
         }
     };
 
@@ -42,6 +47,43 @@ struct Cursor {
     virtual bool get_next_row(CursorRow *row) = 0;
 };
 
+/**
+ * Decodes the float or tuple payload of the sample
+ *
+ * Returns the number of values, writes at most `cap` values to `out`.
+ */
+static int tsdb4j_decode_values(const aku_Sample *sample, double *out, int cap) {
+    if (sample->payload.type & aku_PData::FLOAT_BIT) {
+        if (cap > 0) {
+            out[0] = sample->payload.float64;
+        }
+        return 1;
+    } else if (sample->payload.type & aku_PData::TUPLE_BIT) {
+        union {
+            u64 u;
+            double d;
+        } bits;
+        bits.d = sample->payload.float64;
+        int nelements = bits.u >> 58;  // top 6 bits contains number of elements
+        double const* tuple = reinterpret_cast<double const*>(sample->payload.data);
+        int tup_ix = 0;
+        for (int ix = 0; ix < nelements && ix < cap; ix++) {
+            if (bits.u & (1ull << ix)) {
+                out[ix] = tuple[tup_ix];
+            } else {
+                // empty tuple
+                out[ix] = NAN;
+            }
+            tup_ix++;
+        }
+        return nelements;
+    }
+    return 0;
+}
+
+//! Size of the read buffer of the cursor, a sample of a compound series is at most a few hundred bytes
+static const size_t TSDB4J_CURSOR_BUFFER_SIZE = 64 * 1024;
+
 struct LocalCursor : Cursor {
     aku_Session *session_;
     aku_Cursor *cursor_;
@@ -49,18 +91,57 @@ struct LocalCursor : Cursor {
     size_t              rdbuf_pos_;  //! Read position in buffer
     size_t              rdbuf_top_;  //! Last initialized item _index_ in `rdbuf_`
 
-    LocalCursor(aku_Session *s, aku_Cursor *cursor)
+    std::unordered_map<aku_ParamId, int> dictionary_;  //! Param id to series id
+    std::vector<std::string>             names_;       //! Series names by series id
+
+    u64                 stall_nanos_;  //! Time spent waiting for the storage
+    u64                 stalls_;       //! Number of reads which had to wait
+
+    // Scratch space of nextBatch, reused by the calls to avoid allocations per batch
+    std::vector<jlong>   batch_timestamps_;
+    std::vector<jint>    batch_series_ids_;
+    std::vector<jdouble> batch_values_;
+    std::vector<jint>    batch_offsets_;
+
+    // Read-ahead state, the worker fills `back_` while the consumer reads `rdbuf_`.
+    // The worker is the only thread which calls aku_cursor_read.
+    bool                    prefetch_;
+    std::thread             worker_;
+    std::mutex              mutex_;
+    std::condition_variable cond_;
+    std::vector<char>       back_;
+    size_t                  back_top_;
+    bool                    back_ready_;  //! `back_` is filled and waits to be swapped
+    bool                    finished_;    //! Cursor is exhausted or failed, no more read
+    bool                    failed_;
+    bool                    stop_;
+
+    LocalCursor(aku_Session *s, aku_Cursor *cursor, size_t buffer_size = TSDB4J_CURSOR_BUFFER_SIZE, bool prefetch = false)
             : session_(s), cursor_(cursor),
-            rdbuf_top_(0), rdbuf_pos_(0) {
-        rdbuf_.resize(1024);
+            rdbuf_top_(0), rdbuf_pos_(0),
+            stall_nanos_(0), stalls_(0),
+            prefetch_(prefetch && cursor != nullptr), back_top_(0),
+            back_ready_(false), finished_(false), failed_(false), stop_(false) {
+        rdbuf_.resize(buffer_size);
+        if (prefetch_) {
+            back_.resize(buffer_size);
+            worker_ = std::thread(&LocalCursor::prefetch, this);
+        }
     }
 
     bool can_proceed() override {
-        aku_Status status = AKU_SUCCESS;
-        return aku_cursor_is_error(cursor_, &status) == 0;
+        return !is_error();
     }
 
     ~LocalCursor() override {
+        if (prefetch_) {
+            {
+                std::lock_guard<std::mutex> lock(mutex_);
+                stop_ = true;
+            }
+            cond_.notify_all();
+            worker_.join();
+        }
         if (cursor_) {
             aku_cursor_close(cursor_);
         }
@@ -70,71 +151,220 @@ struct LocalCursor : Cursor {
         if (rdbuf_pos_ < rdbuf_top_) {
             return false;
         }
+        if (prefetch_) {
+            std::lock_guard<std::mutex> lock(mutex_);
+            return !back_ready_ && finished_;
+        }
         if (cursor_) {
             return aku_cursor_is_done(cursor_);
         }
         return true;
     }
 
-    bool get_next_row(CursorRow *result) override {
-        if (rdbuf_top_ == rdbuf_pos_) {
+    bool is_error() {
+        if (prefetch_) {
+            std::lock_guard<std::mutex> lock(mutex_);
+            return failed_;
+        }
+        aku_Status status = AKU_SUCCESS;
+        return aku_cursor_is_error(cursor_, &status) != 0;
+    }
+
+    //! Worker loop of the read-ahead mode
+    void prefetch() {
+        std::unique_lock<std::mutex> lock(mutex_);
+        while (true) {
+            cond_.wait(lock, [this] { return !back_ready_ || stop_; });
+            if (stop_) {
+                return;
+            }
+            lock.unlock();
+            // the consumer doesn't touch `back_` until `back_ready_` is set
+            size_t top = aku_cursor_read(cursor_, back_.data(), back_.size());
+            aku_Status status = AKU_SUCCESS;
+            bool failed = aku_cursor_is_error(cursor_, &status) != 0;
+            bool finished = failed || top == 0 || aku_cursor_is_done(cursor_);
+            lock.lock();
+            back_top_ = top;
+            back_ready_ = top > 0;
+            failed_ = failed;
+            finished_ = finished;
+            cond_.notify_all();
+            if (finished) {
+                return;
+            }
+        }
+    }
+
+    //! Refills the read buffer, blocks until the samples are available
+    void fill() {
+        auto start = std::chrono::steady_clock::now();
+        bool stalled = true;
+        if (prefetch_) {
+            std::unique_lock<std::mutex> lock(mutex_);
+            stalled = !back_ready_ && !finished_;
+            cond_.wait(lock, [this] { return back_ready_ || finished_; });
+            if (back_ready_) {
+                rdbuf_.swap(back_);
+                rdbuf_top_ = back_top_;
+                back_ready_ = false;
+                cond_.notify_all();
+            } else {
+                rdbuf_top_ = 0;
+            }
+        } else {
             rdbuf_top_ = aku_cursor_read(cursor_, rdbuf_.data(), rdbuf_.size());
-            rdbuf_pos_ = 0u;
         }
-        aku_Status status;
-        if (aku_cursor_is_error(cursor_, &status) != 0) {
-            return false;
+        rdbuf_pos_ = 0u;
+        if (stalled) {
+            stalls_++;
+            stall_nanos_ += (u64) std::chrono::duration_cast<std::chrono::nanoseconds>(
+                    std::chrono::steady_clock::now() - start).count();
+        }
+    }
+
+    //! Current sample without consuming it, nullptr if there is no more sample
+    const aku_Sample* peek() {
+        if (rdbuf_top_ == rdbuf_pos_) {
+            fill();
+        }
+        if (rdbuf_pos_ == rdbuf_top_ && is_error()) {
+            return nullptr;
         }
         if (rdbuf_pos_ < rdbuf_top_) {
-            const aku_Sample* sample = reinterpret_cast<const aku_Sample*>(rdbuf_.data() + rdbuf_pos_);
-            if (sample->payload.type & aku_PData::PARAMID_BIT) {
-                result->series = (char*) malloc(sizeof(char) * AKU_LIMITS_MAX_SNAME);
-                auto len = aku_param_id_to_series(session_, sample->paramid, result->series, AKU_LIMITS_MAX_SNAME);
-                if (len <= 0) {
-                    // Error, no such id
-                    return false;
-                }
-                result->series[len] = '\0';
-            }
-            if (sample->payload.type & aku_PData::PARAMID_BIT) {
-                result->timestamp = sample->timestamp;
+            return reinterpret_cast<const aku_Sample*>(rdbuf_.data() + rdbuf_pos_);
+        }
+        return nullptr;
+    }
+
+    //! Consume the sample returned by peek()
+    void advance(const aku_Sample *sample) {
+        rdbuf_pos_ += sample->payload.size;
+    }
+
+    //! Copies the raw samples to `dest`, returns the number of bytes
+    //! Buffered samples are copied first, then the cursor reads directly into `dest`.
+    size_t read(char *dest, size_t size) {
+        size_t len = 0;
+        while (rdbuf_pos_ < rdbuf_top_) {
+            auto sample = reinterpret_cast<const aku_Sample*>(rdbuf_.data() + rdbuf_pos_);
+            size_t sample_size = sample->payload.size;
+            if (len + sample_size > size) {
+                return len;
             }
-            if (sample->payload.type & aku_PData::FLOAT_BIT) {
-                double* values = new double[1];
-                values[0] = sample->payload.float64;
-                result->values = values;
-                result->len_values = 1;
-            } else if (sample->payload.type & aku_PData::TUPLE_BIT) {
-                union {
-                    u64 u;
-                    double d;
-                } bits;
-                bits.d = sample->payload.float64;
-                int nelements = bits.u >> 58;  // top 6 bits contains number of elements
-                double const* tuple = reinterpret_cast<double const*>(sample->payload.data);
-                int tup_ix = 0;
-                double* values = nelements > 0 ? new double[nelements] : nullptr;
-                for (int ix = 0; ix < nelements; ix++) {
-                    if (bits.u & (1 << ix)) {
-                        values[ix] = tuple[tup_ix];
-                    } else {
-                        // empty tuple
-                        values[ix] = NAN;
-                    }
-                    tup_ix++;
+            memcpy(dest + len, sample, sample_size);
+            len += sample_size;
+            rdbuf_pos_ += sample_size;
+        }
+        if (len < size && !is_error()) {
+            if (prefetch_) {
+                fill();
+                if (rdbuf_top_ > 0) {
+                    len += read(dest + len, size - len);
                 }
-                result->values = values;
-                result->len_values = nelements;
             } else {
-                result->values = nullptr;
-                result->len_values = 0;
+                len += aku_cursor_read(cursor_, dest + len, size - len);
+            }
+        }
+        return len;
+    }
+
+    //! Dense per-cursor id of the series, -1 if the param id is unknown
+    //! The name is looked up once per distinct series of the cursor.
+    int series_id(aku_ParamId id) {
+        auto it = dictionary_.find(id);
+        if (it != dictionary_.end()) {
+            return it->second;
+        }
+        char name[AKU_LIMITS_MAX_SNAME];
+        auto len = aku_param_id_to_series(session_, id, name, AKU_LIMITS_MAX_SNAME);
+        if (len <= 0) {
+            return -1;
+        }
+        int series_id = (int) names_.size();
+        names_.emplace_back(name, (size_t) strnlen(name, (size_t) len));
+        dictionary_.emplace(id, series_id);
+        return series_id;
+    }
+
+    bool get_next_row(CursorRow *result) override {
+        const aku_Sample* sample = peek();
+        if (sample == nullptr) {
+            return !is_error();
+        }
+        if (sample->payload.type & aku_PData::PARAMID_BIT) {
+            int series_id = this->series_id(sample->paramid);
+            if (series_id < 0) {
+                // Error, no such id
+                return false;
             }
-            rdbuf_pos_ += sample->payload.size;
+            result->series_id = series_id;
+            result->series = names_[(size_t) series_id].c_str();
+            result->timestamp = sample->timestamp;
         }
+        int nelements = tsdb4j_decode_values(sample, nullptr, 0);
+        double* values = nelements > 0 ? new double[nelements] : nullptr;
+        tsdb4j_decode_values(sample, values, nelements);
+        result->values = values;
+        result->len_values = (size_t) nelements;
+        advance(sample);
         return true;
     }
 };
 
+/**
+ * Native state of the Java Session
+ */
+struct SessionContext {
+    aku_Session *session;
+
+    //! AKU_EBUSY retry strategy: spin, then yield, then park with exponential backoff
+    u32 spins = 64;
+    u32 yields = 64;
+    u64 min_park_nanos = 1000;
+    u64 max_park_nanos = 1000000;
+    u64 max_wait_nanos = 0;  //! zero means wait until the storage is available
+
+    //! Retry statistics
+    u64 retries = 0;
+    u64 busy_nanos = 0;
+
+    explicit SessionContext(aku_Session *s) : session(s) {}
+
+    template<class Write>
+    aku_Status retry(Write write) {
+        aku_Status status = write();
+        if (status != AKU_EBUSY) {
+            return status;
+        }
+        auto start = std::chrono::steady_clock::now();
+        u64 attempt = 0;
+        u64 park_nanos = min_park_nanos;
+        u64 elapsed = 0;
+        while (status == AKU_EBUSY) {
+            attempt++;
+            if (attempt <= spins) {
+                // busy spin
+            } else if (attempt <= (u64) spins + yields) {
+                std::this_thread::yield();
+            } else {
+                std::this_thread::sleep_for(std::chrono::nanoseconds(park_nanos));
+                park_nanos = std::min(park_nanos * 2, max_park_nanos);
+            }
+            elapsed = (u64) std::chrono::duration_cast<std::chrono::nanoseconds>(
+                        std::chrono::steady_clock::now() - start).count();
+            if (max_wait_nanos > 0 && elapsed > max_wait_nanos) {
+                status = AKU_ETIMEOUT;
+                break;
+            }
+            status = write();
+        }
+        retries += attempt;
+        busy_nanos += elapsed;
+        return status;
+    }
+};
+
 #ifdef __cplusplus
 extern "C" {
 #endif
@@ -314,7 +544,9 @@ JNIEXPORT jlong JNICALL Java_io_webfolder_tsdb4j_Session__1open(JNIEnv *env, job
     auto *c_db = (aku_Database *) db;
     if (c_db) {
         auto *session = aku_create_session(c_db);
-        return (jlong) session;
+        if (session) {
+            return (jlong) new SessionContext(session);
+        }
     }
     return 0;
 }
@@ -324,50 +556,372 @@ JNIEXPORT void JNICALL Java_io_webfolder_tsdb4j_Session__1close(JNIEnv *env, job
         tsdb4j_throw_panic(env);
         return;
     }
-    auto *c_session = (aku_Session *) session;
-    if (c_session) {
-        aku_destroy_session(c_session);
+    auto *c_context = (SessionContext *) session;
+    if (c_context) {
+        aku_destroy_session(c_context->session);
+        delete c_context;
     }
 }
 
-JNIEXPORT void JNICALL Java_io_webfolder_tsdb4j_Session__1add(
+JNIEXPORT void JNICALL Java_io_webfolder_tsdb4j_Session__1retryPolicy(
+        JNIEnv *env,
+        jobject that,
+        jlong session,
+        jint spins,
+        jint yields,
+        jlong min_park_nanos,
+        jlong max_park_nanos,
+        jlong max_wait_nanos) {
+    auto *c_context = (SessionContext *) session;
+    if (!c_context) {
+        return;
+    }
+    c_context->spins = (u32) spins;
+    c_context->yields = (u32) yields;
+    c_context->min_park_nanos = (u64) std::max(min_park_nanos, (jlong) 1);
+    c_context->max_park_nanos = (u64) std::max(max_park_nanos, min_park_nanos);
+    c_context->max_wait_nanos = (u64) max_wait_nanos;
+}
+
+JNIEXPORT void JNICALL Java_io_webfolder_tsdb4j_Session__1retryStats(
+        JNIEnv *env,
+        jobject that,
+        jlong session,
+        jlongArray stats) {
+    auto *c_context = (SessionContext *) session;
+    if (!c_context) {
+        return;
+    }
+    jlong c_stats[2] = { (jlong) c_context->retries, (jlong) c_context->busy_nanos };
+    env->SetLongArrayRegion(stats, 0, 2, c_stats);
+}
+
+static aku_Status tsdb4j_write_id(SessionContext *context,
+                                  aku_ParamId id,
+                                  aku_Timestamp timestamp,
+                                  double value) {
+    aku_Sample sample;
+    sample.paramid = id;
+    sample.timestamp = timestamp;
+    sample.payload.type = AKU_PAYLOAD_FLOAT;
+    sample.payload.float64 = value;
+    return context->retry([&]() {
+        return aku_write(context->session, &sample);
+    });
+}
+
+static aku_Status tsdb4j_write_series(SessionContext *context,
+                                      const char *series,
+                                      const char *series_end,
+                                      aku_Timestamp timestamp,
+                                      double value) {
+    aku_Sample sample;
+    aku_Status status = aku_series_to_param_id(context->session, series, series_end, &sample);
+    if (status != AKU_SUCCESS) {
+        return status;
+    }
+    return tsdb4j_write_id(context, sample.paramid, timestamp, value);
+}
+
+static void tsdb4j_throw_invalid_series(JNIEnv *env, aku_Status status, const char *series) {
+    jni::Class exception_class = jni::Class("io/webfolder/tsdb4j/InvalidSeriesException");
+    jni::Object exception_object = exception_class.newInstance((int) status, series);
+    env->Throw((jthrowable) exception_object.getHandle());
+}
+
+JNIEXPORT jint JNICALL Java_io_webfolder_tsdb4j_Session__1add(
         JNIEnv *env,
         jobject that,
         jlong session,
         jlong timestamp,
         jstring series,
         jdouble value) {
+    if (tsdb4j_check_panic()) {
+        tsdb4j_throw_panic(env);
+        return AKU_EGENERAL;
+    }
+    auto *c_context = (SessionContext *) session;
+    if (!c_context) {
+        return AKU_ECLOSED;
+    }
+    auto c_series = env->GetStringUTFChars(series, JNI_FALSE);
+    auto c_series_len = env->GetStringUTFLength(series);
+    aku_Status status = tsdb4j_write_series(c_context,
+                                            c_series,
+                                            &c_series[c_series_len],
+                                            (aku_Timestamp) timestamp,
+                                            value);
+    env->ReleaseStringUTFChars(series, c_series);
+    return (jint) status;
+}
+
+JNIEXPORT jint JNICALL Java_io_webfolder_tsdb4j_Session__1addBytes(
+        JNIEnv *env,
+        jobject that,
+        jlong session,
+        jlong timestamp,
+        jbyteArray series,
+        jdouble value) {
+    if (tsdb4j_check_panic()) {
+        tsdb4j_throw_panic(env);
+        return AKU_EGENERAL;
+    }
+    auto *c_context = (SessionContext *) session;
+    if (!c_context) {
+        return AKU_ECLOSED;
+    }
+    jsize c_series_len = env->GetArrayLength(series);
+    aku_Sample sample;
+    // resolve only inside the critical region, the write may wait for a busy storage
+    auto *c_series = (const char *) env->GetPrimitiveArrayCritical(series, nullptr);
+    if (!c_series) {
+        return AKU_ENO_MEM;
+    }
+    aku_Status status = aku_series_to_param_id(c_context->session, c_series, &c_series[c_series_len], &sample);
+    env->ReleasePrimitiveArrayCritical(series, (void *) c_series, JNI_ABORT);
+    if (status != AKU_SUCCESS) {
+        return (jint) status;
+    }
+    return (jint) tsdb4j_write_id(c_context, sample.paramid, (aku_Timestamp) timestamp, value);
+}
+
+JNIEXPORT jint JNICALL Java_io_webfolder_tsdb4j_Session__1addBatch(
+        JNIEnv *env,
+        jobject that,
+        jlong session,
+        jlongArray timestamps,
+        jobjectArray series,
+        jdoubleArray values,
+        jint offset,
+        jint length,
+        jintArray statuses) {
+    if (tsdb4j_check_panic()) {
+        tsdb4j_throw_panic(env);
+        return 0;
+    }
+    auto *c_context = (SessionContext *) session;
+    if (!c_context || length <= 0) {
+        return 0;
+    }
+    // copy primitive columns once, strings are converted row by row
+    std::vector<jlong> c_timestamps((size_t) length);
+    std::vector<jdouble> c_values((size_t) length);
+    std::vector<jint> c_statuses((size_t) length);
+    env->GetLongArrayRegion(timestamps, offset, length, c_timestamps.data());
+    env->GetDoubleArrayRegion(values, offset, length, c_values.data());
+    jint failed = 0;
+    for (jint i = 0; i < length; i++) {
+        aku_Status status = AKU_EBAD_ARG;
+        auto item = (jstring) env->GetObjectArrayElement(series, offset + i);
+        if (item != nullptr) {
+            auto c_series = env->GetStringUTFChars(item, JNI_FALSE);
+            auto c_series_len = env->GetStringUTFLength(item);
+            status = tsdb4j_write_series(c_context,
+                                         c_series,
+                                         &c_series[c_series_len],
+                                         (aku_Timestamp) c_timestamps[i],
+                                         c_values[i]);
+            env->ReleaseStringUTFChars(item, c_series);
+            env->DeleteLocalRef(item);
+        }
+        c_statuses[i] = (jint) status;
+        if (status != AKU_SUCCESS) {
+            failed++;
+        }
+    }
+    env->SetIntArrayRegion(statuses, 0, length, c_statuses.data());
+    return failed;
+}
+
+JNIEXPORT jlong JNICALL Java_io_webfolder_tsdb4j_Session__1resolve(
+        JNIEnv *env,
+        jobject that,
+        jlong session,
+        jstring series) {
+    if (tsdb4j_check_panic()) {
+        tsdb4j_throw_panic(env);
+        return 0;
+    }
+    auto *c_context = (SessionContext *) session;
+    if (!c_context) {
+        return 0;
+    }
+    auto c_series = env->GetStringUTFChars(series, JNI_FALSE);
+    auto c_series_len = env->GetStringUTFLength(series);
+    aku_Sample sample;
+    aku_Status status = aku_series_to_param_id(c_context->session, c_series, &c_series[c_series_len], &sample);
+    if (status != AKU_SUCCESS) {
+        tsdb4j_throw_invalid_series(env, status, c_series);
+    }
+    env->ReleaseStringUTFChars(series, c_series);
+    return status == AKU_SUCCESS ? (jlong) sample.paramid : 0;
+}
+
+JNIEXPORT void JNICALL Java_io_webfolder_tsdb4j_Session__1resolveAll(
+        JNIEnv *env,
+        jobject that,
+        jlong session,
+        jobjectArray series,
+        jlongArray ids) {
     if (tsdb4j_check_panic()) {
         tsdb4j_throw_panic(env);
         return;
     }
-    auto *c_session = (aku_Session *) session;
-    if (!c_session) {
+    auto *c_context = (SessionContext *) session;
+    if (!c_context) {
         return;
     }
-    auto status = AKU_EBUSY;
-    auto c_series = env->GetStringUTFChars(series, JNI_FALSE);
-    auto c_series_len = env->GetStringLength(series);
-    jni::Object exception_object = nullptr;
-    while (status == AKU_EBUSY) {
+    jsize length = env->GetArrayLength(series);
+    std::vector<jlong> c_ids((size_t) length);
+    for (jsize i = 0; i < length; i++) {
+        auto item = (jstring) env->GetObjectArrayElement(series, i);
+        auto c_series = env->GetStringUTFChars(item, JNI_FALSE);
+        auto c_series_len = env->GetStringUTFLength(item);
         aku_Sample sample;
-        aku_Status status_param_id = aku_series_to_param_id(c_session, c_series, &c_series[c_series_len], &sample);
-        if (status_param_id != AKU_SUCCESS) {
-            jni::Class exception_class = jni::Class("io/webfolder/tsdb4j/InvalidSeriesException");
-            exception_object = exception_class.newInstance((int) status_param_id, c_series);
-            goto done;
-        }
-        sample.timestamp = (aku_Timestamp) timestamp;
-        sample.payload.type = AKU_PAYLOAD_FLOAT;
-        sample.payload.float64 = value;
-        // TODO: add exception handling
-        status = aku_write(c_session, &sample);
-    }
-    done:
+        aku_Status status = aku_series_to_param_id(c_context->session, c_series, &c_series[c_series_len], &sample);
+        if (status != AKU_SUCCESS) {
+            tsdb4j_throw_invalid_series(env, status, c_series);
+        }
+        env->ReleaseStringUTFChars(item, c_series);
+        env->DeleteLocalRef(item);
+        if (status != AKU_SUCCESS) {
+            return;
+        }
+        c_ids[i] = (jlong) sample.paramid;
+    }
+    if (length > 0) {
+        env->SetLongArrayRegion(ids, 0, length, c_ids.data());
+    }
+}
+
+JNIEXPORT jint JNICALL Java_io_webfolder_tsdb4j_Session__1addId(
+        JNIEnv *env,
+        jobject that,
+        jlong session,
+        jlong timestamp,
+        jlong id,
+        jdouble value) {
+    if (tsdb4j_check_panic()) {
+        tsdb4j_throw_panic(env);
+        return AKU_EGENERAL;
+    }
+    auto *c_context = (SessionContext *) session;
+    if (!c_context) {
+        return AKU_ECLOSED;
+    }
+    return (jint) tsdb4j_write_id(c_context, (aku_ParamId) id, (aku_Timestamp) timestamp, value);
+}
+
+JNIEXPORT jint JNICALL Java_io_webfolder_tsdb4j_Session__1addCompound(
+        JNIEnv *env,
+        jobject that,
+        jlong session,
+        jlong timestamp,
+        jstring series,
+        jdoubleArray values) {
+    if (tsdb4j_check_panic()) {
+        tsdb4j_throw_panic(env);
+        return AKU_EGENERAL;
+    }
+    auto *c_context = (SessionContext *) session;
+    if (!c_context) {
+        return AKU_ECLOSED;
+    }
+    jsize len_values = env->GetArrayLength(values);
+    auto c_series = env->GetStringUTFChars(series, JNI_FALSE);
+    auto c_series_len = env->GetStringUTFLength(series);
+    aku_ParamId ids[AKU_LIMITS_MAX_ROW_WIDTH];
+    // "metric1|metric2 tags" is resolved to one param id per metric
+    int len_ids = aku_name_to_param_id_list(c_context->session, c_series, &c_series[c_series_len], ids, AKU_LIMITS_MAX_ROW_WIDTH);
     env->ReleaseStringUTFChars(series, c_series);
-    if (exception_object != nullptr) {
-        env->Throw((jthrowable) exception_object.getHandle());
+    if (len_ids < 0) {
+        return (jint) -len_ids;
+    }
+    if (len_ids == 0 || len_ids != len_values) {
+        return AKU_EBAD_ARG;
+    }
+    double c_values[AKU_LIMITS_MAX_ROW_WIDTH];
+    env->GetDoubleArrayRegion(values, 0, len_values, c_values);
+    aku_Status result = AKU_SUCCESS;
+    for (int i = 0; i < len_ids; i++) {
+        aku_Status status = tsdb4j_write_id(c_context, ids[i], (aku_Timestamp) timestamp, c_values[i]);
+        if (status != AKU_SUCCESS && result == AKU_SUCCESS) {
+            result = status;
+        }
+    }
+    return (jint) result;
+}
+
+JNIEXPORT jint JNICALL Java_io_webfolder_tsdb4j_Session__1drain(
+        JNIEnv *env,
+        jobject that,
+        jlong session,
+        jobject buffer,
+        jint offset,
+        jint count,
+        jintArray statuses) {
+    if (tsdb4j_check_panic()) {
+        tsdb4j_throw_panic(env);
+        return 0;
+    }
+    auto *c_context = (SessionContext *) session;
+    if (!c_context || count <= 0) {
+        return 0;
+    }
+    // statuses is null if the caller does not need them
+    std::vector<jint> c_statuses(statuses ? (size_t) count : 0, (jint) AKU_EBAD_ARG);
+    auto *c_buffer = (const char *) env->GetDirectBufferAddress(buffer);
+    if (!c_buffer) {
+        if (statuses) {
+            env->SetIntArrayRegion(statuses, 0, count, c_statuses.data());
+        }
+        return count;
+    }
+    // record layout: param id (8 bytes), timestamp (8 bytes), value (8 bytes)
+    const size_t record_size = 24;
+    jint failed = 0;
+    for (jint i = 0; i < count; i++) {
+        const char *record = c_buffer + ((size_t) offset + (size_t) i) * record_size;
+        aku_ParamId id;
+        aku_Timestamp timestamp;
+        double value;
+        memcpy(&id, record, sizeof(id));
+        memcpy(&timestamp, record + 8, sizeof(timestamp));
+        memcpy(&value, record + 16, sizeof(value));
+        aku_Status status = tsdb4j_write_id(c_context, id, timestamp, value);
+        if (statuses) {
+            c_statuses[i] = (jint) status;
+        }
+        if (status != AKU_SUCCESS) {
+            failed++;
+        }
+    }
+    if (statuses) {
+        env->SetIntArrayRegion(statuses, 0, count, c_statuses.data());
+    }
+    return failed;
+}
+
+JNIEXPORT jstring JNICALL Java_io_webfolder_tsdb4j_Session__1seriesName(
+        JNIEnv *env,
+        jobject that,
+        jlong session,
+        jlong id) {
+    if (tsdb4j_check_panic()) {
+        tsdb4j_throw_panic(env);
+        return nullptr;
+    }
+    auto *c_context = (SessionContext *) session;
+    if (!c_context) {
+        return nullptr;
+    }
+    char name[AKU_LIMITS_MAX_SNAME];
+    auto len = aku_param_id_to_series(c_context->session, (aku_ParamId) id, name, AKU_LIMITS_MAX_SNAME);
+    if (len <= 0) {
+        return nullptr;
     }
+    std::string series(name, strnlen(name, (size_t) len));
+    return env->NewStringUTF(series.c_str());
 }
 
 JNIEXPORT jlong JNICALL Java_io_webfolder_tsdb4j_Session__1metadata(
@@ -379,8 +933,8 @@ JNIEXPORT jlong JNICALL Java_io_webfolder_tsdb4j_Session__1metadata(
         tsdb4j_throw_panic(env);
         return 0;
     }
-    auto *c_session = (aku_Session *) session;
-    if (!c_session) {
+    auto *c_context = (SessionContext *) session;
+    if (!c_context) {
         return 0;
     }
     if (query == nullptr) {
@@ -390,9 +944,9 @@ JNIEXPORT jlong JNICALL Java_io_webfolder_tsdb4j_Session__1metadata(
     if (c_query == nullptr) {
         return 0;
     }
-    auto c_cursor = aku_query(c_session, c_query);
+    auto c_cursor = aku_query(c_context->session, c_query);
     env->ReleaseStringUTFChars(query, c_query);
-    auto cursor = new LocalCursor(c_session, c_cursor);
+    auto cursor = new LocalCursor(c_context->session, c_cursor);
     return (jlong) cursor;
 }
 
@@ -401,13 +955,15 @@ JNIEXPORT jlong JNICALL Java_io_webfolder_tsdb4j_Session__1query(
         JNIEnv *env,
         jobject that,
         jlong session,
-        jstring query) {
+        jstring query,
+        jint bufferSize,
+        jboolean prefetch) {
     if (tsdb4j_check_panic()) {
         tsdb4j_throw_panic(env);
         return 0;
     }
-    auto c_session = (aku_Session *) session;
-    if (!c_session) {
+    auto *c_context = (SessionContext *) session;
+    if (!c_context) {
         return 0;
     }
     if (query == nullptr) {
@@ -417,9 +973,39 @@ JNIEXPORT jlong JNICALL Java_io_webfolder_tsdb4j_Session__1query(
     if (c_query == nullptr) {
         return 0;
     }
-    auto c_cursor = aku_query(c_session, c_query);
+    auto c_cursor = aku_query(c_context->session, c_query);
     env->ReleaseStringUTFChars(query, c_query);
-    auto cursor = new LocalCursor(c_session, c_cursor);
+    size_t buffer_size = bufferSize > 0 ? (size_t) bufferSize : TSDB4J_CURSOR_BUFFER_SIZE;
+    auto cursor = new LocalCursor(c_context->session, c_cursor, buffer_size, prefetch == JNI_TRUE);
+    return (jlong) cursor;
+}
+
+JNIEXPORT jlong JNICALL Java_io_webfolder_tsdb4j_Session__1queryBuffer(
+        JNIEnv *env,
+        jobject that,
+        jlong session,
+        jobject query,
+        jint bufferSize,
+        jboolean prefetch) {
+    if (tsdb4j_check_panic()) {
+        tsdb4j_throw_panic(env);
+        return 0;
+    }
+    auto *c_context = (SessionContext *) session;
+    if (!c_context) {
+        return 0;
+    }
+    if (query == nullptr) {
+        return 0;
+    }
+    // null terminated UTF-8 JSON encoded by PreparedCriteria
+    auto c_query = (const char *) env->GetDirectBufferAddress(query);
+    if (c_query == nullptr) {
+        return 0;
+    }
+    auto c_cursor = aku_query(c_context->session, c_query);
+    size_t buffer_size = bufferSize > 0 ? (size_t) bufferSize : TSDB4J_CURSOR_BUFFER_SIZE;
+    auto cursor = new LocalCursor(c_context->session, c_cursor, buffer_size, prefetch == JNI_TRUE);
     return (jlong) cursor;
 }
 
@@ -440,7 +1026,7 @@ JNIEXPORT jstring JNICALL Java_io_webfolder_tsdb4j_MetaDataCursor__1next(
         return nullptr;
     }
     Cursor::CursorRow row;
-    if (!c_cursor->get_next_row(&row)) {
+    if (!c_cursor->get_next_row(&row) || row.series == nullptr) {
         return nullptr;
     }
     jstring seriesname = env->NewStringUTF(row.series);
@@ -485,28 +1071,25 @@ JNIEXPORT void JNICALL Java_io_webfolder_tsdb4j_MetaDataCursor__1close(
 // Cursor
 // ----------------------------------------------------------------------------
 
-JNIEXPORT jstring JNICALL Java_io_webfolder_tsdb4j_Cursor__1next(
+JNIEXPORT jint JNICALL Java_io_webfolder_tsdb4j_Cursor__1next(
         JNIEnv *env,
         jobject that,
         jlong cursor) {
     if (tsdb4j_check_panic()) {
         tsdb4j_throw_panic(env);
-        return nullptr;
+        return -1;
     }
     auto *c_cursor = (Cursor *) cursor;
     if (!c_cursor) {
-        return nullptr;
+        return -1;
     }
     Cursor::CursorRow row;
     if (!c_cursor->get_next_row(&row)) {
-        return nullptr;
+        return -1;
     }
-    const char *series = row.series;
-    if (series == nullptr) {
-        return nullptr;
+    if (row.series == nullptr) {
+        return -1;
     }
-    jstring series_name = env->NewStringUTF(series);
-    auto cursor_object = jni::Object(that);
     if (row.values != nullptr) {
         jdoubleArray values = env->NewDoubleArray((jsize) row.len_values);
         env->SetDoubleArrayRegion(values, 0, (jsize) row.len_values, row.values);
@@ -517,7 +1100,7 @@ JNIEXPORT jstring JNICALL Java_io_webfolder_tsdb4j_Cursor__1next(
     } else {
         env->SetLongField(that, CURSOR_FILE_TIMESTAMP, (jlong) NAN);
     }
-    return series_name;
+    return (jint) row.series_id;
 }
 
 JNIEXPORT jboolean JNICALL Java_io_webfolder_tsdb4j_Cursor__1done(
@@ -551,6 +1134,185 @@ JNIEXPORT void JNICALL Java_io_webfolder_tsdb4j_Cursor__1close(
     delete c_cursor;
 }
 
+JNIEXPORT jint JNICALL Java_io_webfolder_tsdb4j_Cursor__1nextBatch(
+        JNIEnv *env,
+        jobject that,
+        jlong cursor,
+        jlongArray timestamps,
+        jintArray seriesIds,
+        jdoubleArray values,
+        jintArray offsets) {
+    if (tsdb4j_check_panic()) {
+        tsdb4j_throw_panic(env);
+        return 0;
+    }
+    auto *c_cursor = (LocalCursor *) cursor;
+    if (!c_cursor) {
+        return 0;
+    }
+    jsize capacity = env->GetArrayLength(timestamps);
+    jsize value_capacity = env->GetArrayLength(values);
+    auto &c_timestamps = c_cursor->batch_timestamps_;
+    auto &c_series_ids = c_cursor->batch_series_ids_;
+    auto &c_values = c_cursor->batch_values_;
+    auto &c_offsets = c_cursor->batch_offsets_;
+    c_timestamps.clear();
+    c_series_ids.clear();
+    c_offsets.clear();
+    if (c_values.size() < (size_t) value_capacity) {
+        c_values.resize((size_t) value_capacity);
+    }
+    c_offsets.push_back(0);
+    jint value_pos = 0;
+    while ((jsize) c_timestamps.size() < capacity) {
+        const aku_Sample *sample = c_cursor->peek();
+        if (sample == nullptr) {
+            break;
+        }
+        if ((sample->payload.type & aku_PData::PARAMID_BIT) == 0) {
+            // no series, nothing to return
+            c_cursor->advance(sample);
+            continue;
+        }
+        int nelements = tsdb4j_decode_values(sample, nullptr, 0);
+        if (value_pos + nelements > value_capacity) {
+            if (c_timestamps.empty()) {
+                // the values of the row do not fit into the batch
+                return -1;
+            }
+            break;
+        }
+        int series_id = c_cursor->series_id(sample->paramid);
+        if (series_id < 0) {
+            if (c_timestamps.empty()) {
+                // Error, no such id
+                return -2;
+            }
+            // the rows read so far are returned, the next call reports the error
+            break;
+        }
+        tsdb4j_decode_values(sample, c_values.data() + value_pos, nelements);
+        value_pos += nelements;
+        c_timestamps.push_back((jlong) sample->timestamp);
+        c_series_ids.push_back((jint) series_id);
+        c_offsets.push_back(value_pos);
+        c_cursor->advance(sample);
+    }
+    auto rows = (jsize) c_timestamps.size();
+    if (rows > 0) {
+        env->SetLongArrayRegion(timestamps, 0, rows, c_timestamps.data());
+        env->SetIntArrayRegion(seriesIds, 0, rows, c_series_ids.data());
+        env->SetDoubleArrayRegion(values, 0, value_pos, c_values.data());
+        env->SetIntArrayRegion(offsets, 0, rows + 1, c_offsets.data());
+    }
+    return rows;
+}
+
+JNIEXPORT jint JNICALL Java_io_webfolder_tsdb4j_Cursor__1read(
+        JNIEnv *env,
+        jobject that,
+        jlong cursor,
+        jobject buffer,
+        jint position,
+        jint length) {
+    if (tsdb4j_check_panic()) {
+        tsdb4j_throw_panic(env);
+        return 0;
+    }
+    auto *c_cursor = (LocalCursor *) cursor;
+    if (!c_cursor) {
+        return 0;
+    }
+    auto *c_buffer = (char *) env->GetDirectBufferAddress(buffer);
+    if (!c_buffer) {
+        return 0;
+    }
+    return (jint) c_cursor->read(c_buffer + position, (size_t) length);
+}
+
+JNIEXPORT void JNICALL Java_io_webfolder_tsdb4j_Cursor__1stats(
+        JNIEnv *env,
+        jobject that,
+        jlong cursor,
+        jlongArray stats) {
+    if (tsdb4j_check_panic()) {
+        tsdb4j_throw_panic(env);
+        return;
+    }
+    auto *c_cursor = (LocalCursor *) cursor;
+    if (!c_cursor) {
+        return;
+    }
+    jlong c_stats[] = { (jlong) c_cursor->stalls_, (jlong) c_cursor->stall_nanos_ };
+    env->SetLongArrayRegion(stats, 0, 2, c_stats);
+}
+
+JNIEXPORT jint JNICALL Java_io_webfolder_tsdb4j_Cursor__1seriesId(
+        JNIEnv *env,
+        jobject that,
+        jlong cursor,
+        jlong paramId) {
+    if (tsdb4j_check_panic()) {
+        tsdb4j_throw_panic(env);
+        return -1;
+    }
+    auto *c_cursor = (LocalCursor *) cursor;
+    if (!c_cursor) {
+        return -1;
+    }
+    return (jint) c_cursor->series_id((aku_ParamId) paramId);
+}
+
+// ----------------------------------------------------------------------------
+// SampleReader
+// ----------------------------------------------------------------------------
+
+JNIEXPORT jintArray JNICALL Java_io_webfolder_tsdb4j_SampleReader__1layout(
+        JNIEnv *env,
+        jclass klass) {
+    const size_t payload = offsetof(aku_Sample, payload);
+    jint layout[] = {
+        (jint) offsetof(aku_Sample, paramid),
+        (jint) offsetof(aku_Sample, timestamp),
+        (jint) (payload + offsetof(aku_PData, float64)),
+        (jint) (payload + offsetof(aku_PData, size)),
+        (jint) sizeof(((aku_PData *) nullptr)->size),
+        (jint) (payload + offsetof(aku_PData, type)),
+        (jint) sizeof(((aku_PData *) nullptr)->type),
+        (jint) (payload + offsetof(aku_PData, data)),
+        (jint) aku_PData::PARAMID_BIT,
+        (jint) aku_PData::FLOAT_BIT,
+        (jint) aku_PData::TUPLE_BIT
+    };
+    jsize len = (jsize) (sizeof(layout) / sizeof(layout[0]));
+    jintArray result = env->NewIntArray(len);
+    env->SetIntArrayRegion(result, 0, len, layout);
+    return result;
+}
+
+JNIEXPORT jobjectArray JNICALL Java_io_webfolder_tsdb4j_Cursor__1dictionary(
+        JNIEnv *env,
+        jobject that,
+        jlong cursor,
+        jint from) {
+    if (tsdb4j_check_panic()) {
+        tsdb4j_throw_panic(env);
+        return nullptr;
+    }
+    auto *c_cursor = (LocalCursor *) cursor;
+    if (!c_cursor || from < 0 || (size_t) from >= c_cursor->names_.size()) {
+        return nullptr;
+    }
+    auto len = (jsize) (c_cursor->names_.size() - (size_t) from);
+    jobjectArray names = env->NewObjectArray(len, env->FindClass("java/lang/String"), nullptr);
+    for (jsize i = 0; i < len; i++) {
+        jstring name = env->NewStringUTF(c_cursor->names_[(size_t) from + i].c_str());
+        env->SetObjectArrayElement(names, i, name);
+        env->DeleteLocalRef(name);
+    }
+    return names;
+}
+
 #ifdef __cplusplus
 }
 #endif
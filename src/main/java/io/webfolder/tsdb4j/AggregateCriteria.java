@@ -167,6 +167,22 @@ public class AggregateCriteria implements Criteria {
         return new Builder();
     }
 
+    /**
+     * Copy of the criteria with another time range and aggregate function.
+     */
+    AggregateCriteria with(long from, long to, AggregateFunction aggregateFunction) {
+        AggregateCriteria copy = new AggregateCriteria();
+        copy.aggregateMetricName = aggregateMetricName;
+        copy.aggregateFunction = aggregateFunction;
+        copy.from = from;
+        copy.to = to;
+        copy.groupByTag = groupByTag;
+        copy.pivotByTag = pivotByTag;
+        copy.tagName = tagName;
+        copy.tagValues = tagValues;
+        return copy;
+    }
+
     @Override
     public String toJson() {
         if (criteria != null) {
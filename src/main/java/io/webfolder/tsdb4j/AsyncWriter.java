@@ -0,0 +1,348 @@
+package io.webfolder.tsdb4j;
+
+import static io.webfolder.tsdb4j.Constant.MAX_SERIES_LENGTH;
+import static java.util.concurrent.CompletableFuture.allOf;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes samples on dedicated background threads.
+ *
+ * Every writer thread owns a {@link Session} and a bounded queue. Samples are routed
+ * to the threads by series, so samples of a series are written in the order they are added.
+ * Queued samples are written in batches with {@link Session#add(WriteBatch)}.
+ *
+ * Unlike {@link Session}, this class is thread-safe.
+ */
+public class AsyncWriter implements AutoCloseable {
+
+    private static final Entry STOP = new Entry(0, null, 0, null);
+
+    private final Worker[] workers;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean closed;
+
+    private static class Entry {
+
+        final long timestamp;
+
+        final String series;
+
+        final double value;
+
+        final CompletableFuture<Void> flush;
+
+        Entry(long timestamp, String series, double value, CompletableFuture<Void> flush) {
+            this.timestamp = timestamp;
+            this.series = series;
+            this.value = value;
+            this.flush = flush;
+        }
+    }
+
+    AsyncWriter(Database database, int threads, int capacity, int batchSize, OverflowPolicy overflowPolicy) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("[threads] must be greater or equal than: [1]");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("[capacity] must be greater or equal than: [1]");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("[batchSize] must be greater or equal than: [1]");
+        }
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("overflowPolicy");
+        }
+        this.overflowPolicy = overflowPolicy;
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(database.createSession(), capacity, batchSize);
+        }
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(workers[i], "tsdb4j-writer-" + i);
+            thread.setDaemon(true);
+            workers[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    public void add(long timestamp, String series, double value) {
+        if (timestamp < 0) {
+            throw new IllegalArgumentException("[timestamp] parameter is required");
+        }
+        if (series == null) {
+            throw new IllegalArgumentException("series");
+        }
+        if (series.length() > MAX_SERIES_LENGTH) {
+            throw new IllegalArgumentException("series length must less than " + MAX_SERIES_LENGTH);
+        }
+        if (closed) {
+            throw new IllegalStateException("writer is closed");
+        }
+        Worker worker = workers[(series.hashCode() & 0x7fffffff) % workers.length];
+        Entry entry = new Entry(timestamp, series, value, null);
+        switch (overflowPolicy) {
+            case block:
+                put(worker, entry);
+                break;
+            case drop_oldest:
+                while (!worker.queue.offer(entry)) {
+                    // flush and stop markers are never dropped and keep their position
+                    Entry oldest = worker.oldestSample();
+                    if (oldest == null) {
+                        put(worker, entry);
+                        break;
+                    }
+                    if (worker.queue.remove(oldest)) {
+                        dropped.incrementAndGet();
+                    }
+                }
+                break;
+            case fail:
+                if (!worker.queue.offer(entry)) {
+                    throw new TsdbException("write queue is full");
+                }
+                break;
+        }
+    }
+
+    public void add(Instant timestamp, String series, double value) {
+        add(TimeUtils.toEpoch(timestamp), series, value);
+    }
+
+    /**
+     * Requests to write all samples added before this call.
+     *
+     * The returned future is completed when the samples are written, or completed exceptionally
+     * if a batch write failed with an exception since the previous flush.
+     * Rows rejected by the database don't fail the future, see {@link #getFailed()}.
+     */
+    public CompletableFuture<Void> flush() {
+        if (closed) {
+            throw new IllegalStateException("writer is closed");
+        }
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            put(workers[i], new Entry(0, null, 0, future));
+            futures[i] = future;
+        }
+        return allOf(futures);
+    }
+
+    /**
+     * Number of queued samples of all writer threads.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Worker next : workers) {
+            depth += next.queue.size();
+        }
+        return depth;
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Number of samples rejected by the database.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Number of samples discarded by {@link OverflowPolicy#drop_oldest}.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Writes the queued samples, stops the writer threads and closes their sessions.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Worker next : workers) {
+            put(next, STOP);
+        }
+        boolean interrupted = false;
+        for (Worker next : workers) {
+            while (next.thread.isAlive()) {
+                try {
+                    next.thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void put(Worker worker, Entry entry) {
+        try {
+            worker.queue.put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TsdbException("interrupted while waiting for the write queue");
+        }
+        if (worker.stopped) {
+            // the writer thread is gone, nobody else completes the flush futures
+            worker.abort();
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private final ArrayBlockingQueue<Entry> queue;
+
+        private final Session session;
+
+        private final WriteBatch batch;
+
+        private final int batchSize;
+
+        private Thread thread;
+
+        private RuntimeException error;
+
+        private volatile boolean stopped;
+
+        Worker(Session session, int capacity, int batchSize) {
+            this.session = session;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.batch = new WriteBatch(batchSize);
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void run() {
+            List<Entry> entries = new ArrayList<>(batchSize);
+            try {
+                boolean stop = false;
+                while (!stop) {
+                    entries.add(queue.take());
+                    queue.drainTo(entries, batchSize - 1);
+                    stop = process(entries);
+                    entries.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                stopped = true;
+                for (Entry next : entries) {
+                    if (next.flush != null) {
+                        next.flush.completeExceptionally(new TsdbException("writer thread is stopped"));
+                    }
+                }
+                abort();
+                session.close();
+            }
+        }
+
+        /**
+         * Oldest queued sample, or null if the queue holds only flush and stop markers.
+         */
+        Entry oldestSample() {
+            for (Entry next : queue) {
+                if (next.series != null) {
+                    return next;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Discards the queued entries and fails their flush futures.
+         */
+        void abort() {
+            Entry next;
+            while ((next = queue.poll()) != null) {
+                abort(next);
+            }
+        }
+
+        private void abort(Entry entry) {
+            if (entry.flush != null) {
+                entry.flush.completeExceptionally(new TsdbException("writer thread is stopped"));
+            } else if (entry != STOP) {
+                dropped.incrementAndGet();
+            }
+        }
+
+        private boolean process(List<Entry> entries) {
+            for (int i = 0; i < entries.size(); i++) {
+                Entry next = entries.get(i);
+                if (next == STOP) {
+                    write();
+                    for (int j = i + 1; j < entries.size(); j++) {
+                        abort(entries.get(j));
+                    }
+                    return true;
+                } else if (next.flush != null) {
+                    write();
+                    if (error == null) {
+                        next.flush.complete(null);
+                    } else {
+                        next.flush.completeExceptionally(error);
+                        error = null;
+                    }
+                } else {
+                    batch.add(next.timestamp, next.series, next.value);
+                    if (batch.isFull()) {
+                        write();
+                    }
+                }
+            }
+            write();
+            return false;
+        }
+
+        private void write() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            int size = batch.size();
+            try {
+                int errors = session.add(batch);
+                written.addAndGet(size - errors);
+                failed.addAndGet(errors);
+            } catch (RuntimeException e) {
+                failed.addAndGet(size);
+                error = e;
+                Logger.DEFAULT_LOGGER.error(e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncWriter [threads=" + workers.length + ", overflowPolicy=" + overflowPolicy + "]";
+    }
+}
@@ -1,5 +1,6 @@
 package io.webfolder.tsdb4j;
 
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.Iterator;
 import java.util.List;
@@ -14,5 +15,68 @@ public interface BaseCursor extends Iterable<String>, Iterator<String>, AutoClos
 
     List<Tag> getTags();
 
+    /**
+     * Parsed parts of the current series, see {@link SeriesParser}.
+     */
+    ParsedSeries getParsedSeries();
+
+    /**
+     * Reads the next rows into the batch with a single native call.
+     *
+     * @return number of rows, <code>0</code> if the cursor is exhausted
+     */
+    int nextBatch(RowBatch batch);
+
+    /**
+     * Flyweight mode, moves to the next row without allocating the series name and the values.
+     *
+     * The values are read with {@link #getValueCount()} and {@link #getValue(int)}, the series with
+     * {@link #getSeriesId()} and {@link #getSeries(int)}. Must not be mixed with {@link #next()}.
+     *
+     * @return <code>false</code> if the cursor is exhausted
+     */
+    boolean nextRow();
+
+    /**
+     * Series id of the current row, <code>-1</code> if there is no current row.
+     */
+    int getSeriesId();
+
+    /**
+     * Copies the raw <code>aku_Sample</code> records to a direct buffer, starting at its position.
+     *
+     * The records are written in native byte order and decoded with {@link SampleReader}.
+     * Must not be mixed with the row based methods.
+     *
+     * @return number of bytes written, <code>0</code> if the cursor is exhausted
+     */
+    int read(ByteBuffer buffer);
+
+    /**
+     * Series name of a param id returned by {@link SampleReader#getParamId()}.
+     *
+     * @return <code>null</code> if the param id is unknown
+     */
+    String resolveSeries(long paramId);
+
+    /**
+     * Number of reads which waited for the storage, every read without {@link QueryOptions#prefetch(int)}.
+     */
+    long getStallCount();
+
+    /**
+     * Total time the cursor waited for the storage, in nanoseconds.
+     */
+    long getStallNanos();
+
+    int getValueCount();
+
+    double getValue(int index);
+
+    /**
+     * Name of the series id of a {@link RowBatch}, ids are dense and stable for the cursor.
+     */
+    String getSeries(int seriesId);
+
     void close();
 }
@@ -0,0 +1,710 @@
+package io.webfolder.tsdb4j;
+
+import static io.webfolder.tsdb4j.SampleRing.ID_OFFSET;
+import static io.webfolder.tsdb4j.SampleRing.RECORD_SIZE;
+import static io.webfolder.tsdb4j.SampleRing.TIMESTAMP_OFFSET;
+import static io.webfolder.tsdb4j.SampleRing.VALUE_OFFSET;
+import static java.nio.ByteBuffer.allocateDirect;
+import static java.nio.ByteOrder.nativeOrder;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.exists;
+import static java.nio.file.Files.move;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads historical data ordered by series and timestamp.
+ *
+ * Input files are ordered by time across all series, writing them as is makes the storage
+ * jump between series and causes late writes. The loader reads the memory-mapped inputs,
+ * partitions the samples by series, sorts them to (series, timestamp) order with an external
+ * merge sort and writes the sorted runs of each partition in parallel, one session per partition.
+ *
+ * Spill files and the checkpoint are stored in the work directory. If a load fails it can be
+ * restarted with the same work directory and inputs, completed inputs and written samples are skipped.
+ *
+ * Supported input formats:
+ *
+ * <pre>
+ * csv:    series,timestamp,value (one sample per line, timestamp in nanoseconds)
+ * binary: unsigned short series length, UTF-8 series, long timestamp, double value (big-endian)
+ * </pre>
+ */
+public class BulkLoader {
+
+    public enum Format {
+        csv,
+        binary;
+
+        @Override
+        public String toString() {
+            return name();
+        }
+    }
+
+    private static final long MAP_WINDOW = 64L * 1024L * 1024L;
+
+    private static final int IO_BUFFER_RECORDS = 64 * 1024;
+
+    // buffer of a run reader, a merge holds MAX_FAN_IN of them per partition
+    private static final int RUN_BUFFER_RECORDS = 4 * 1024;
+
+    // maximum number of runs merged at once, more runs are merged in passes
+    private static final int MAX_FAN_IN = 64;
+
+    private static final String CHECKPOINT = "checkpoint.properties";
+
+    private final Database database;
+
+    private final Path workDir;
+
+    private final int parallelism;
+
+    private final int chunkSize;
+
+    private final Properties checkpoint = new Properties();
+
+    private final AtomicLong read = new AtomicLong();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile long start;
+
+    private volatile long end;
+
+    /**
+     * @param database opened database
+     * @param workDir directory of the spill files and the checkpoint
+     * @param parallelism number of partitions, each partition is written by its own session
+     * @param chunkSize number of samples sorted in memory per partition before spilling to disk
+     */
+    public BulkLoader(Database database, Path workDir, int parallelism, int chunkSize) {
+        if (database == null) {
+            throw new IllegalArgumentException("database");
+        }
+        if (workDir == null) {
+            throw new IllegalArgumentException("workDir");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("[parallelism] must be greater or equal than: [1]");
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("[chunkSize] must be greater or equal than: [1]");
+        }
+        this.database = database;
+        this.workDir = workDir.toAbsolutePath();
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Loads the input files, resumes from the checkpoint of a previous failed load.
+     */
+    public void load(List<Path> inputs, Format format) {
+        if (inputs == null || inputs.isEmpty()) {
+            throw new IllegalArgumentException("inputs");
+        }
+        if (format == null) {
+            throw new IllegalArgumentException("format");
+        }
+        start = System.nanoTime();
+        end = 0;
+        try {
+            createDirectories(workDir);
+            loadCheckpoint();
+            if (!"done".equals(checkpoint.getProperty("sort"))) {
+                sort(inputs, format);
+                checkpoint.setProperty("sort", "done");
+                saveCheckpoint();
+            }
+            merge();
+            cleanup();
+        } catch (IOException e) {
+            throw new TsdbException(e.getMessage());
+        } finally {
+            end = System.nanoTime();
+        }
+    }
+
+    /**
+     * Number of samples read from the inputs.
+     */
+    public long getRead() {
+        return read.get();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Number of samples rejected by the database.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Written samples per second.
+     */
+    public double getThroughput() {
+        long started = start;
+        if (started == 0) {
+            return 0;
+        }
+        long elapsed = (end > 0 ? end : System.nanoTime()) - started;
+        return elapsed > 0 ? written.get() * 1_000_000_000D / elapsed : 0;
+    }
+
+    // ------------------------------------------------------------------------
+    // sort phase
+    // ------------------------------------------------------------------------
+
+    private void sort(List<Path> inputs, Format format) throws IOException {
+        Chunk[] chunks = new Chunk[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            chunks[i] = new Chunk(i, chunkSize);
+        }
+        Map<String, Long> ids = new HashMap<>();
+        try (Session session = database.createSession()) {
+            for (Path next : inputs) {
+                String key = "input." + next.toAbsolutePath();
+                if ("done".equals(checkpoint.getProperty(key))) {
+                    continue;
+                }
+                try (MappedInput input = new MappedInput(next)) {
+                    if (format == Format.csv) {
+                        readCsv(input, session, ids, chunks);
+                    } else {
+                        readBinary(input, session, ids, chunks);
+                    }
+                }
+                // runs of a completed input never contain samples of the next one
+                for (Chunk chunk : chunks) {
+                    chunk.spill();
+                }
+                checkpoint.setProperty(key, "done");
+                saveCheckpoint();
+            }
+        }
+    }
+
+    private void readCsv(MappedInput input, Session session, Map<String, Long> ids, Chunk[] chunks) {
+        byte[] bytes = new byte[256];
+        while (input.hasRemaining()) {
+            int len = 0;
+            byte c = 0;
+            while (input.hasRemaining() && (c = input.get()) != ',' && c != '\n') {
+                if (len == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, len * 2);
+                }
+                bytes[len++] = c;
+            }
+            if (c != ',') {
+                // empty line
+                continue;
+            }
+            String series = new String(bytes, 0, len, UTF_8);
+            long timestamp = 0;
+            while (input.hasRemaining() && (c = input.get()) != ',') {
+                if (c >= '0' && c <= '9') {
+                    timestamp = timestamp * 10 + (c - '0');
+                }
+            }
+            len = 0;
+            while (input.hasRemaining() && (c = input.get()) != '\n') {
+                if (c == '\r') {
+                    continue;
+                }
+                if (len == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, len * 2);
+                }
+                bytes[len++] = c;
+            }
+            double value = Double.parseDouble(new String(bytes, 0, len, US_ASCII));
+            add(session, ids, chunks, series, timestamp, value);
+        }
+    }
+
+    private void readBinary(MappedInput input, Session session, Map<String, Long> ids, Chunk[] chunks) {
+        byte[] bytes = new byte[256];
+        while (input.hasRemaining()) {
+            int len = ((input.get() & 0xff) << 8) | (input.get() & 0xff);
+            if (len > bytes.length) {
+                bytes = new byte[len];
+            }
+            for (int i = 0; i < len; i++) {
+                bytes[i] = input.get();
+            }
+            String series = new String(bytes, 0, len, UTF_8);
+            long timestamp = input.getLong();
+            double value = Double.longBitsToDouble(input.getLong());
+            add(session, ids, chunks, series, timestamp, value);
+        }
+    }
+
+    private void add(Session session, Map<String, Long> ids, Chunk[] chunks,
+                            String series, long timestamp, double value) {
+        Long id = ids.get(series);
+        if (id == null) {
+            id = session.resolve(series).getId();
+            ids.put(series, id);
+        }
+        read.incrementAndGet();
+        Chunk chunk = chunks[(int) ((id.longValue() & Long.MAX_VALUE) % parallelism)];
+        chunk.add(id.longValue(), timestamp, value);
+        if (chunk.isFull()) {
+            try {
+                chunk.spill();
+            } catch (IOException e) {
+                throw new TsdbException(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Samples of a partition sorted in memory before they are spilled to a run file.
+     *
+     * The chunk is sorted on the heap: the quicksort swaps records at random positions and
+     * bounds-checked array access is cheaper than the absolute get and put calls of a direct buffer.
+     * The heap used is bounded by the chunk size, the spill and merge buffers are direct.
+     */
+    private class Chunk {
+
+        private final int partition;
+
+        private final long[] ids;
+
+        private final long[] timestamps;
+
+        private final double[] values;
+
+        private int size;
+
+        Chunk(int partition, int capacity) {
+            this.partition = partition;
+            this.ids = new long[capacity];
+            this.timestamps = new long[capacity];
+            this.values = new double[capacity];
+        }
+
+        void add(long id, long timestamp, double value) {
+            ids[size] = id;
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size += 1;
+        }
+
+        boolean isFull() {
+            return size == ids.length;
+        }
+
+        void spill() throws IOException {
+            if (size == 0) {
+                return;
+            }
+            sort(0, size - 1);
+            int run = Integer.parseInt(checkpoint.getProperty("runs." + partition, "0"));
+            Path file = runFile(partition, run);
+            ByteBuffer buffer = allocateDirect(IO_BUFFER_RECORDS * RECORD_SIZE).order(nativeOrder());
+            try (FileChannel channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                for (int i = 0; i < size; i++) {
+                    if (!buffer.hasRemaining()) {
+                        write(channel, buffer);
+                    }
+                    buffer.putLong(ids[i]);
+                    buffer.putLong(timestamps[i]);
+                    buffer.putDouble(values[i]);
+                }
+                write(channel, buffer);
+                channel.force(false);
+            }
+            checkpoint.setProperty("runs." + partition, String.valueOf(run + 1));
+            size = 0;
+        }
+
+        private int compare(int i, int j) {
+            int c = Long.compare(ids[i], ids[j]);
+            return c != 0 ? c : Long.compare(timestamps[i], timestamps[j]);
+        }
+
+        private void swap(int i, int j) {
+            long id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+            long timestamp = timestamps[i];
+            timestamps[i] = timestamps[j];
+            timestamps[j] = timestamp;
+            double value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+
+        private void sort(int lo, int hi) {
+            while (hi - lo > 16) {
+                int mid = (lo + hi) >>> 1;
+                // median of three as pivot, moved to hi
+                if (compare(mid, lo) < 0) {
+                    swap(mid, lo);
+                }
+                if (compare(hi, lo) < 0) {
+                    swap(hi, lo);
+                }
+                if (compare(mid, hi) < 0) {
+                    swap(mid, hi);
+                }
+                int store = lo;
+                for (int i = lo; i < hi; i++) {
+                    if (compare(i, hi) < 0) {
+                        swap(i, store++);
+                    }
+                }
+                swap(store, hi);
+                // recurse into the smaller side to bound the stack depth
+                if (store - lo < hi - store) {
+                    sort(lo, store - 1);
+                    lo = store + 1;
+                } else {
+                    sort(store + 1, hi);
+                    hi = store - 1;
+                }
+            }
+            for (int i = lo + 1; i <= hi; i++) {
+                for (int j = i; j > lo && compare(j, j - 1) < 0; j--) {
+                    swap(j, j - 1);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // merge phase
+    // ------------------------------------------------------------------------
+
+    private void merge() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "tsdb4j-bulk-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>(parallelism);
+            for (int i = 0; i < parallelism; i++) {
+                int partition = i;
+                futures.add(executor.submit(() -> {
+                    merge(partition);
+                    return null;
+                }));
+            }
+            for (Future<?> next : futures) {
+                next.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TsdbException("bulk load is interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new TsdbException(cause.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void merge(int partition) throws IOException {
+        if ("done".equals(getCheckpoint("partition." + partition))) {
+            return;
+        }
+        int first = Integer.parseInt(getCheckpoint("first." + partition, "0"));
+        int runs = Integer.parseInt(getCheckpoint("runs." + partition, "0"));
+        // intermediate passes merge the oldest runs into a new run until the fan-in is bounded
+        while (runs - first > MAX_FAN_IN) {
+            mergeRuns(partition, first, first + MAX_FAN_IN, runs);
+            first += MAX_FAN_IN;
+            runs += 1;
+            setCheckpoint(partition, first, runs);
+            for (int i = first - MAX_FAN_IN; i < first; i++) {
+                deleteIfExists(runFile(partition, i));
+            }
+        }
+        long skip = Long.parseLong(getCheckpoint("written." + partition, "0"));
+        long position = 0;
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, runs - first));
+        List<RunReader> readers = new ArrayList<>(runs - first);
+        ByteBuffer batch = allocateDirect(IO_BUFFER_RECORDS * RECORD_SIZE).order(nativeOrder());
+        try (Session session = database.createSession()) {
+            open(partition, first, runs, readers, queue);
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                if (position++ >= skip) {
+                    batch.putLong(reader.id);
+                    batch.putLong(reader.timestamp);
+                    batch.putDouble(reader.value);
+                    if (!batch.hasRemaining()) {
+                        drain(session, batch);
+                        setCheckpoint("written." + partition, String.valueOf(position));
+                    }
+                }
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            drain(session, batch);
+            setCheckpoint("partition." + partition, "done");
+        } finally {
+            for (RunReader next : readers) {
+                next.close();
+            }
+        }
+    }
+
+    private void mergeRuns(int partition, int from, int to, int run) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(to - from);
+        List<RunReader> readers = new ArrayList<>(to - from);
+        ByteBuffer buffer = allocateDirect(IO_BUFFER_RECORDS * RECORD_SIZE).order(nativeOrder());
+        try (FileChannel channel = FileChannel.open(runFile(partition, run), CREATE, WRITE, TRUNCATE_EXISTING)) {
+            open(partition, from, to, readers, queue);
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                if (!buffer.hasRemaining()) {
+                    write(channel, buffer);
+                }
+                buffer.putLong(reader.id);
+                buffer.putLong(reader.timestamp);
+                buffer.putDouble(reader.value);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            write(channel, buffer);
+            channel.force(false);
+        } finally {
+            for (RunReader next : readers) {
+                next.close();
+            }
+        }
+    }
+
+    private void open(int partition, int from, int to,
+                            List<RunReader> readers, PriorityQueue<RunReader> queue) throws IOException {
+        for (int i = from; i < to; i++) {
+            RunReader reader = new RunReader(runFile(partition, i));
+            readers.add(reader);
+            if (reader.next()) {
+                queue.add(reader);
+            }
+        }
+    }
+
+    private Path runFile(int partition, int run) {
+        return workDir.resolve("p" + partition + "-" + run + ".run");
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void drain(Session session, ByteBuffer batch) {
+        int count = batch.position() / RECORD_SIZE;
+        if (count == 0) {
+            return;
+        }
+        int errors = session.drain(batch, 0, count);
+        written.addAndGet(count - errors);
+        failed.addAndGet(errors);
+        batch.clear();
+    }
+
+    private static class RunReader implements Comparable<RunReader>, Closeable {
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer = allocateDirect(RUN_BUFFER_RECORDS * RECORD_SIZE).order(nativeOrder());
+
+        long id;
+
+        long timestamp;
+
+        double value;
+
+        RunReader(Path file) throws IOException {
+            this.channel = FileChannel.open(file, READ);
+            buffer.limit(0);
+        }
+
+        boolean next() throws IOException {
+            if (buffer.remaining() < RECORD_SIZE) {
+                buffer.compact();
+                while (buffer.position() < RECORD_SIZE && channel.read(buffer) > 0) {
+                    // fill at least one record
+                }
+                buffer.flip();
+                if (buffer.remaining() < RECORD_SIZE) {
+                    return false;
+                }
+            }
+            int position = buffer.position();
+            id = buffer.getLong(position + ID_OFFSET);
+            timestamp = buffer.getLong(position + TIMESTAMP_OFFSET);
+            value = buffer.getDouble(position + VALUE_OFFSET);
+            buffer.position(position + RECORD_SIZE);
+            return true;
+        }
+
+        @Override
+        public int compareTo(RunReader o) {
+            int c = Long.compare(id, o.id);
+            return c != 0 ? c : Long.compare(timestamp, o.timestamp);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class MappedInput implements Closeable {
+
+        private final FileChannel channel;
+
+        private final long size;
+
+        private long base;
+
+        private MappedByteBuffer buffer;
+
+        MappedInput(Path file) throws IOException {
+            this.channel = FileChannel.open(file, READ);
+            this.size = channel.size();
+            this.buffer = channel.map(READ_ONLY, 0, Math.min(MAP_WINDOW, size));
+        }
+
+        boolean hasRemaining() {
+            return base + buffer.position() < size;
+        }
+
+        byte get() {
+            if (!buffer.hasRemaining()) {
+                base += buffer.position();
+                if (base >= size) {
+                    throw new TsdbException("unexpected end of input");
+                }
+                try {
+                    buffer = channel.map(READ_ONLY, base, Math.min(MAP_WINDOW, size - base));
+                } catch (IOException e) {
+                    throw new TsdbException(e.getMessage());
+                }
+            }
+            return buffer.get();
+        }
+
+        long getLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (get() & 0xff);
+            }
+            return value;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // checkpoint
+    // ------------------------------------------------------------------------
+
+    private synchronized String getCheckpoint(String key) {
+        return checkpoint.getProperty(key);
+    }
+
+    private synchronized String getCheckpoint(String key, String defaultValue) {
+        return checkpoint.getProperty(key, defaultValue);
+    }
+
+    private synchronized void setCheckpoint(String key, String value) throws IOException {
+        checkpoint.setProperty(key, value);
+        saveCheckpoint();
+    }
+
+    private synchronized void setCheckpoint(int partition, int first, int runs) throws IOException {
+        checkpoint.setProperty("first." + partition, String.valueOf(first));
+        checkpoint.setProperty("runs." + partition, String.valueOf(runs));
+        saveCheckpoint();
+    }
+
+    private synchronized void loadCheckpoint() throws IOException {
+        checkpoint.clear();
+        Path file = workDir.resolve(CHECKPOINT);
+        if (exists(file)) {
+            try (InputStream is = Files.newInputStream(file)) {
+                checkpoint.load(is);
+            }
+        }
+    }
+
+    private synchronized void saveCheckpoint() throws IOException {
+        Path file = workDir.resolve(CHECKPOINT);
+        Path tmp = workDir.resolve(CHECKPOINT + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmp)) {
+            checkpoint.store(os, "tsdb4j bulk loader");
+        }
+        move(tmp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private void cleanup() throws IOException {
+        for (int i = 0; i < parallelism; i++) {
+            int runs = Integer.parseInt(getCheckpoint("runs." + i, "0"));
+            for (int j = 0; j < runs; j++) {
+                deleteIfExists(runFile(i, j));
+            }
+        }
+        deleteIfExists(workDir.resolve(CHECKPOINT));
+        checkpoint.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "BulkLoader [workDir=" + workDir + ", parallelism=" + parallelism + ", chunkSize=" + chunkSize + "]";
+    }
+}
@@ -2,8 +2,11 @@ package io.webfolder.tsdb4j;
 
 import static io.webfolder.tsdb4j.TimeUtils.fromEpoch;
 import static java.lang.Double.NaN;
+import static java.nio.ByteOrder.nativeOrder;
+import static java.util.Arrays.copyOfRange;
 import static java.util.Collections.emptyList;
 
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -17,29 +20,43 @@ class Cursor implements Iterable<String>,
                                CompoundCursor,
                                GroupAggregateCursor {
 
+    private static final int FLYWEIGHT_ROWS = 1024;
+
+    private static final int FLYWEIGHT_VALUES = 8192;
+
     private long cursor;
 
-    private native String _next(long cursor);
+    private native int _next(long cursor);
 
     private native boolean _done(long cursor);
 
     private native void _close(long cursor);
 
+    private native int _nextBatch(long cursor, long[] timestamps, int[] seriesIds, double[] values, int[] offsets);
+
+    private native String[] _dictionary(long cursor, int from);
+
+    private native int _read(long cursor, ByteBuffer buffer, int position, int length);
+
+    private native int _seriesId(long cursor, long paramId);
+
+    private native void _stats(long cursor, long[] stats);
+
     private double[] values;
 
     private String series;
 
     private long timestamp;
 
-    private String metric;
+    private ParsedSeries parsed;
 
-    private List<String> metrics;
+    private final List<String> dictionary = new ArrayList<>();
 
-    private List<Tag> tags;
+    private RowBatch rows;
 
-    private List<AggregateFunction> aggregateFunctions;
+    private int row;
 
-    private AggregateFunction aggregateFunction;
+    private int seriesId = -1;
 
     public Cursor(long cursor) {
         this.cursor = cursor;
@@ -47,19 +64,129 @@ class Cursor implements Iterable<String>,
 
     @Override
     public boolean hasNext() {
+        if (rows != null && row + 1 < rows.size()) {
+            return true;
+        }
         return !_done(cursor);
     }
 
     @Override
     public String next() {
-        series = _next(cursor);
-        metric = null;
-        tags = null;
-        metrics = null;
-        aggregateFunctions = null;
+        if (rows != null) {
+            throw new IllegalStateException("next() can not be mixed with nextRow()");
+        }
+        int next = _next(cursor);
+        if (next >= 0 && next == seriesId) {
+            // same series, keep the parsed metric and tags
+            return series;
+        }
+        seriesId = next;
+        series = next >= 0 ? getSeries(next) : null;
+        parsed = null;
         return series;
     }
 
+    @Override
+    public boolean nextRow() {
+        if (rows == null) {
+            rows = new RowBatch(FLYWEIGHT_ROWS, FLYWEIGHT_VALUES);
+            row = -1;
+        }
+        row += 1;
+        if (row >= rows.size()) {
+            row = 0;
+            if (nextBatch(rows) == 0) {
+                row = -1;
+                seriesId = -1;
+                return false;
+            }
+        }
+        int next = rows.getSeriesId(row);
+        if (next != seriesId) {
+            seriesId = next;
+            series = dictionary.get(next);
+            parsed = null;
+        }
+        timestamp = rows.getTimestamp(row);
+        return true;
+    }
+
+    @Override
+    public int getSeriesId() {
+        return seriesId;
+    }
+
+    @Override
+    public int nextBatch(RowBatch batch) {
+        if (batch == null) {
+            throw new IllegalArgumentException("batch");
+        }
+        int rows = _nextBatch(cursor, batch.getTimestamps(), batch.getSeriesIds(), batch.getValues(), batch.getOffsets());
+        if (rows == -1) {
+            throw new IllegalStateException("values of the row exceed the value capacity of the batch");
+        }
+        if (rows < 0) {
+            throw new TsdbException("series of the row is not found");
+        }
+        batch.setSize(rows);
+        fetchDictionary();
+        return rows;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            throw new IllegalArgumentException("buffer must be a direct buffer");
+        }
+        buffer.order(nativeOrder());
+        int len = _read(cursor, buffer, buffer.position(), buffer.remaining());
+        if (len == 0 && !_done(cursor)) {
+            throw new IllegalStateException("buffer is too small for the next sample");
+        }
+        buffer.position(buffer.position() + len);
+        return len;
+    }
+
+    @Override
+    public String resolveSeries(long paramId) {
+        int id = _seriesId(cursor, paramId);
+        return id < 0 ? null : getSeries(id);
+    }
+
+    @Override
+    public long getStallCount() {
+        long[] stats = new long[2];
+        _stats(cursor, stats);
+        return stats[0];
+    }
+
+    @Override
+    public long getStallNanos() {
+        long[] stats = new long[2];
+        _stats(cursor, stats);
+        return stats[1];
+    }
+
+    private void fetchDictionary() {
+        String[] names = _dictionary(cursor, dictionary.size());
+        if (names != null) {
+            for (String next : names) {
+                dictionary.add(next);
+            }
+        }
+    }
+
+    @Override
+    public String getSeries(int seriesId) {
+        if (seriesId >= dictionary.size()) {
+            fetchDictionary();
+        }
+        if (seriesId < 0 || seriesId >= dictionary.size()) {
+            throw new IndexOutOfBoundsException("seriesId: " + seriesId);
+        }
+        return dictionary.get(seriesId);
+    }
+
     @Override
     public void close() {
         _close(cursor);
@@ -80,130 +207,87 @@ class Cursor implements Iterable<String>,
     }
 
     public double getValue() {
-        return values != null ? values[0] : NaN;
+        return getValueCount() > 0 ? getValue(0) : NaN;
     }
 
+    /**
+     * Values of the current row, in flyweight mode ({@link #nextRow()}) a new array is returned on each call.
+     */
     public double[] getValues() {
+        if (rows != null) {
+            if (row < 0) {
+                return null;
+            }
+            int offset = rows.getOffsets()[row];
+            return copyOfRange(rows.getValues(), offset, offset + rows.getValueCount(row));
+        }
         return values;
     }
 
-    public String getSeries() {
-        return series;
+    @Override
+    public int getValueCount() {
+        if (rows != null) {
+            return row < 0 ? 0 : rows.getValueCount(row);
+        }
+        return values != null ? values.length : 0;
     }
 
-    public String getMetric() {
-        if (metric != null) {
-            return metric;
-        }
-        int i;
-        int startAggregate = 0;
-        int startTag = 0;
-        for (i = 0; i < series.length(); i++) {
-            char c = series.charAt(i);
-            if (c == ' ') {
-                startTag = i;
-                break;
-            }
-            if (c == '|') {
-                break;
-            }
-            if (c == ':') {
-                startAggregate = i;
-            }
+    @Override
+    public double getValue(int index) {
+        if (index < 0 || index >= getValueCount()) {
+            throw new IndexOutOfBoundsException("index: " + index);
         }
-        if (startAggregate > 0) {
-            aggregateFunction = AggregateFunction.valueOf(series.substring(startAggregate + 1, i));
+        if (rows != null) {
+            return rows.getValues()[rows.getOffsets()[row] + index];
         }
-        if (startAggregate == 0 && startTag == 0) {
-            startTag = i;
+        return values[index];
+    }
+
+    public String getSeries() {
+        return series;
+    }
+
+    /**
+     * Parsed parts of the current series, shared with the other rows and cursors.
+     */
+    public ParsedSeries getParsedSeries() {
+        if (parsed == null && series != null) {
+            parsed = SeriesParser.parse(series);
         }
-        return metric = series.substring(0, startAggregate > 0 ? startAggregate : startTag);
+        return parsed;
+    }
+
+    public String getMetric() {
+        ParsedSeries parsed = getParsedSeries();
+        return parsed != null ? parsed.getMetric() : null;
     }
 
     public List<String> getMetrics() {
-        if (series == null) {
-            return emptyList();
-        }
-        if (metrics != null) {
-            return metrics;
-        }
-        int len = values != null ? values.length : 0;
-        metrics = new ArrayList<>(len);
-        aggregateFunctions = new ArrayList<>(len);
-        int start = 0;
-        int aggregateStart = 0;
-        for (int i = 0; i < series.length(); i++) {
-            char c = series.charAt(i);
-            if (c == ':') {
-                aggregateStart = i;
-                continue;
-            } else if (c == '|' || c == ' ') {
-                if (aggregateStart > 0) {
-                    String aggregate = series.substring(aggregateStart + 1, i);
-                    AggregateFunction aggregateFunction = AggregateFunction.valueOf(aggregate);
-                    aggregateFunctions.add(aggregateFunction);
-                }
-                String next = series.substring(start, aggregateStart > 0 ? aggregateStart : i);
-                metrics.add(next);
-                if (c == ' ') {
-                    break;
-                }
-                start = i + 1;
-            }
-        }
-        return metrics;
+        ParsedSeries parsed = getParsedSeries();
+        return parsed != null ? parsed.getMetrics() : emptyList();
     }
 
     public double getValue(AggregateFunction aggregate) {
-        if (aggregateFunctions != null) {
-            int index = aggregateFunctions.indexOf(aggregate);
-            if (index < 0) {
-                return NaN;
-            }
-            return index < values.length ? values[index] : NaN;
+        int index = getAggregateFunctions().indexOf(aggregate);
+        if (index < 0) {
+            return NaN;
         }
-        return NaN;
+        return index < getValueCount() ? getValue(index) : NaN;
     }
 
     public List<Tag> getTags() {
-        if (series == null) {
-            return emptyList();
-        }
-        if (tags != null) {
-            return tags;
-        }
-        String[] list = series.split(" ");
-        tags = list.length <= 1 ? emptyList() : new ArrayList<>(list.length);
-        for (int i = 0; i < list.length; i++) {
-            String next = list[i];
-            int tagLen = next.length();
-            for (int j = 0; j < tagLen; j++) {
-                char c = next.charAt(j);
-                if (c == '=') {
-                    Tag tag = new Tag(next.substring(0, j), next.substring(j + 1, tagLen));
-                    tags.add(tag);
-                }
-            }
-        }
-        return tags;
+        ParsedSeries parsed = getParsedSeries();
+        return parsed != null ? parsed.getTags() : emptyList();
     }
 
     public List<AggregateFunction> getAggregateFunctions() {
-        if (series == null) {
-            return emptyList();
-        }
-        if (aggregateFunctions != null) {
-            return aggregateFunctions;
-        }
-        getMetrics();
-        if (aggregateFunctions == null) {
-            aggregateFunctions = emptyList();
-        }
-        return aggregateFunctions;
+        ParsedSeries parsed = getParsedSeries();
+        return parsed != null ? parsed.getAggregateFunctions() : emptyList();
     }
 
     public AggregateFunction getAggregateFunction() {
-        return aggregateFunction;
+        ParsedSeries parsed = getParsedSeries();
+        return parsed != null ? parsed.getAggregateFunction() : null;
     }
 
     @Override
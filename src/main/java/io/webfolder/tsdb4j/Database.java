@@ -11,11 +11,14 @@ import static java.nio.file.Files.exists;
 import static java.nio.file.Files.size;
 import static java.nio.file.Paths.get;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Collections.unmodifiableList;
 import static java.util.Locale.ENGLISH;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
 
 public class Database {
 
@@ -87,6 +90,10 @@ public class Database {
 
     private long db;
 
+    private final WriteListeners writeListeners = new WriteListeners();
+
+    private final Rollups rollups = new Rollups(this);
+
     private final Path dbPath;
 
     private final Path dbFile;
@@ -159,7 +166,117 @@ public class Database {
     }
 
     public Session createSession() {
-        return new Session(db);
+        return new Session(db, writeListeners);
+    }
+
+    /**
+     * Creates a thread-safe {@link SessionPool}.
+     * 
+     * @param maxSize maximum number of sessions
+     */
+    public SessionPool createSessionPool(int maxSize) {
+        return new SessionPool(db, maxSize, writeListeners, rollups);
+    }
+
+    /**
+     * Session of the rollup writes, the writes are not sent to the listeners.
+     */
+    Session createRollupSession() {
+        return new Session(db, new WriteListeners());
+    }
+
+    /**
+     * Registers a listener which is called after every sample written by the sessions of this database.
+     */
+    public void addWriteListener(WriteListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener");
+        }
+        writeListeners.add(listener);
+    }
+
+    public boolean removeWriteListener(WriteListener listener) {
+        return writeListeners.remove(listener);
+    }
+
+    /**
+     * Declares a continuous rollup.
+     *
+     * The rollup is maintained from the samples written after it is declared. Group-aggregate
+     * queries of {@link QueryExecutor} read the rollup series when the step and the range of the
+     * query are aligned to the step of the rollup, and only for the bins which the rollup fully covers.
+     * The first bin of every series and the bins which received late writes are read from the raw series.
+     */
+    public synchronized void addRollup(RollupRule rule) {
+        if (rule == null) {
+            throw new IllegalArgumentException("rule");
+        }
+        if (rollups.isEmpty()) {
+            writeListeners.add(rollups);
+        }
+        rollups.add(rule);
+    }
+
+    public synchronized boolean removeRollup(RollupRule rule) {
+        boolean removed = rollups.remove(rule);
+        if (rollups.isEmpty()) {
+            writeListeners.remove(rollups);
+        }
+        return removed;
+    }
+
+    public List<RollupRule> getRollups() {
+        return unmodifiableList(rollups.getRules());
+    }
+
+    /**
+     * Stores the open bins of the rollups, later writes to these bins are not rolled up.
+     * The open bins are stored when the database is closed.
+     */
+    public void flushRollups() {
+        rollups.flush();
+    }
+
+    /**
+     * Number of writes to a stored rollup bin.
+     */
+    public long getRollupLateWrites() {
+        return rollups.getLateWrites();
+    }
+
+    /**
+     * Parallel stream of the rows of a select query, see {@link SessionPool#stream(SelectCriteria, int)}.
+     *
+     * The stream uses its own session pool which is closed with the stream.
+     */
+    public Stream<Sample> stream(SelectCriteria criteria, int parallelism) {
+        SessionPool pool = createSessionPool(parallelism);
+        try {
+            return pool.stream(criteria, parallelism).onClose(pool::close);
+        } catch (RuntimeException e) {
+            pool.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates an {@link AsyncWriter} with one writer thread,
+     * a queue of 65536 samples and {@link OverflowPolicy#block}.
+     */
+    public AsyncWriter createAsyncWriter() {
+        return createAsyncWriter(1, 65536, 1024, OverflowPolicy.block);
+    }
+
+    /**
+     * Creates an {@link AsyncWriter}.
+     * 
+     * @param threads number of writer threads, each thread owns a session
+     * @param capacity queue capacity of each writer thread
+     * @param batchSize maximum number of samples written with a single native call
+     * @param overflowPolicy what to do when the queue is full
+     */
+    public AsyncWriter createAsyncWriter(int threads, int capacity, int batchSize, OverflowPolicy overflowPolicy) {
+        return new AsyncWriter(this, threads, capacity, batchSize, overflowPolicy);
     }
 
     public void delete() {
@@ -176,6 +293,9 @@ public class Database {
     }
 
     public void close() {
+        if (db > 0) {
+            rollups.close();
+        }
         _close(db);
         db = 0;
     }
@@ -0,0 +1,360 @@
+package io.webfolder.tsdb4j;
+
+import static java.lang.Math.floorDiv;
+import static java.lang.Math.floorMod;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Comparator.comparingLong;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Incremental cache of group-aggregate query results.
+ *
+ * Results are cached per criteria (without the time range) as step aligned bins. A query whose
+ * range overlaps the cached bins reads them from memory and queries the database only for the
+ * missing bins before and after them, a dashboard refreshing a sliding window queries only the
+ * newest bins.
+ *
+ * Bins newer than <code>settle</code> are not cached, they may still receive writes. Older bins are
+ * invalidated by the late writes, the cache must be registered with
+ * {@link Database#addWriteListener(WriteListener)} to receive them. Entries are evicted in
+ * least recently used order when the estimated memory usage exceeds <code>maxBytes</code>.
+ *
+ * Queries with a limit, an offset or a filter and queries without a bounded range are not cached.
+ *
+ * This class is thread-safe.
+ */
+public class GroupAggregateCache implements WriteListener {
+
+    private static final int ENTRY_BYTES = 128;
+
+    private static final int ROW_BYTES = 64;
+
+    private static final int VERSION_STRIPES = 256;
+
+    private final QueryExecutor executor;
+
+    private final long maxBytes;
+
+    private final long settle;
+
+    // access ordered, guarded by itself
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long memoryUsage;
+
+    // upper bound of the cached ranges, writes after it are ignored
+    private volatile long horizon = Long.MIN_VALUE;
+
+    // invalidation counters of the metrics, striped by the hash of the metric, guarded by entries
+    private final long[] versions = new long[VERSION_STRIPES];
+
+    // invalidateAll counter, guarded by entries
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static class Entry {
+
+        final List<String> metrics;
+
+        final long step;
+
+        long from;
+
+        long to;
+
+        final TreeMap<Long, List<Row>> bins = new TreeMap<>();
+
+        long bytes;
+
+        Entry(List<String> metrics, long step, long from, long to) {
+            this.metrics = metrics;
+            this.step = step;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * @param executor runs the queries of the missing bins
+     * @param maxBytes maximum estimated memory usage of the cached rows
+     * @param settle bins which end after <code>now - settle</code> are not cached
+     */
+    public GroupAggregateCache(QueryExecutor executor, long maxBytes, Duration settle) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor");
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("[maxBytes] must be greater or equal than: [1]");
+        }
+        if (settle == null || settle.isNegative()) {
+            throw new IllegalArgumentException("settle");
+        }
+        this.executor = executor;
+        this.maxBytes = maxBytes;
+        this.settle = settle.toNanos();
+    }
+
+    public QueryResult execute(GroupAggregateCriteria criteria) {
+        if (criteria == null) {
+            throw new IllegalArgumentException("criteria");
+        }
+        long start = System.nanoTime();
+        long from = criteria.getFrom();
+        long to = criteria.getTo();
+        if (criteria.getLimit() >= 0 || criteria.getOffset() >= 0 || criteria.getFilter1() != null
+                || criteria.getStep() == null || criteria.getStep().toNanos() <= 0
+                || from <= 0 || to <= from) {
+            misses.incrementAndGet();
+            return query(criteria);
+        }
+        long step = criteria.getStep().toNanos();
+        long end = min(to, TimeUtils.toEpoch(Instant.now()) - settle);
+        long limit = end <= from ? from : from + floorDiv(end - from, step) * step;
+        String key = criteria.with(0, 0, criteria.getFunctions()).toJson() + '@' + floorMod(from, step);
+        if (limit > horizon) {
+            raiseHorizon(limit);
+        }
+        long version;
+        long lo = from;
+        long hi = from;
+        List<Row> cached = new ArrayList<>();
+        synchronized (entries) {
+            version = version(criteria.getMetrics());
+            Entry entry = entries.get(key);
+            if (entry != null && max(from, entry.from) < min(limit, entry.to)) {
+                lo = max(from, entry.from);
+                hi = min(limit, entry.to);
+                for (List<Row> next : entry.bins.subMap(lo, hi).values()) {
+                    cached.addAll(next);
+                }
+            }
+        }
+        List<Row> rows;
+        if (lo == hi) {
+            misses.incrementAndGet();
+            rows = query(criteria).getRows();
+        } else {
+            hits.incrementAndGet();
+            CompletableFuture<QueryResult> prefix = from < lo ? executor.submit(criteria.with(from, lo, criteria.getFunctions())) : null;
+            CompletableFuture<QueryResult> suffix = hi < to ? executor.submit(criteria.with(hi, to, criteria.getFunctions())) : null;
+            List<CompletableFuture<QueryResult>> futures = new ArrayList<>(2);
+            if (prefix != null) {
+                futures.add(prefix);
+            }
+            if (suffix != null) {
+                futures.add(suffix);
+            }
+            QueryExecutor.join(futures);
+            rows = new ArrayList<>();
+            if (prefix != null) {
+                rows.addAll(prefix.join().getRows());
+            }
+            rows.addAll(cached);
+            if (suffix != null) {
+                rows.addAll(suffix.join().getRows());
+            }
+            sort(rows, criteria.getOrderBy());
+        }
+        if (limit > from) {
+            store(key, criteria.getMetrics(), step, from, limit, rows, version);
+        }
+        return new QueryResult(criteria, unmodifiableList(rows), 0, System.nanoTime() - start);
+    }
+
+    /**
+     * Invalidates the cached bins of the metric from the bin of the timestamp.
+     */
+    public void invalidate(String metric, long timestamp) {
+        if (metric == null) {
+            throw new IllegalArgumentException("metric");
+        }
+        synchronized (entries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (timestamp >= entry.to || !entry.metrics.contains(metric)) {
+                    continue;
+                }
+                long binStart = timestamp < entry.from ? entry.from :
+                                    entry.from + floorDiv(timestamp - entry.from, entry.step) * entry.step;
+                entry.bins.tailMap(binStart).clear();
+                entry.to = binStart;
+                memoryUsage -= entry.bytes;
+                if (entry.to <= entry.from) {
+                    iterator.remove();
+                } else {
+                    entry.bytes = bytes(entry);
+                    memoryUsage += entry.bytes;
+                }
+            }
+            versions[stripe(metric)] += 1;
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            memoryUsage = 0;
+            generation += 1;
+        }
+    }
+
+    @Override
+    public void onWrite(long timestamp, String series, double value) {
+        if (timestamp >= horizon) {
+            return;
+        }
+        int end = series.indexOf(' ');
+        invalidate(end < 0 ? series : series.substring(0, end), timestamp);
+    }
+
+    /**
+     * Number of queries which read cached bins.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Number of queries which are run entirely on the database.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Estimated memory usage of the cached rows in bytes.
+     */
+    public long getMemoryUsage() {
+        synchronized (entries) {
+            return memoryUsage;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private QueryResult query(GroupAggregateCriteria criteria) {
+        return QueryExecutor.join(singletonList(executor.submit(criteria))).get(0);
+    }
+
+    private synchronized void raiseHorizon(long limit) {
+        // writes are checked against the horizon before the query starts, a write to a bin which is
+        // being queried changes the version of its metric and the result is not cached
+        if (limit > horizon) {
+            horizon = limit;
+        }
+    }
+
+    private void store(String key, List<String> metrics, long step, long from, long to, List<Row> rows, long version) {
+        Entry fresh = new Entry(metrics, step, from, to);
+        for (Row next : rows) {
+            if (next.getTimestamp() >= from && next.getTimestamp() < to) {
+                fresh.bins.computeIfAbsent(next.getTimestamp(), timestamp -> new ArrayList<>()).add(next);
+            }
+        }
+        synchronized (entries) {
+            if (version(metrics) != version) {
+                return;
+            }
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                memoryUsage -= entry.bytes;
+                if (entry.from <= to && from <= entry.to) {
+                    // keep the cached bins outside of the queried range
+                    fresh.bins.putAll(entry.bins.headMap(from));
+                    fresh.bins.putAll(entry.bins.tailMap(to));
+                    fresh.from = min(from, entry.from);
+                    fresh.to = max(to, entry.to);
+                }
+            }
+            fresh.bytes = bytes(fresh);
+            if (fresh.bytes > maxBytes) {
+                return;
+            }
+            entries.put(key, fresh);
+            memoryUsage += fresh.bytes;
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (memoryUsage > maxBytes && eldest.hasNext()) {
+                Entry next = eldest.next();
+                if (next == fresh) {
+                    break;
+                }
+                eldest.remove();
+                memoryUsage -= next.bytes;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Changes if one of the metrics is invalidated, the counters only grow.
+     */
+    private long version(List<String> metrics) {
+        long version = generation;
+        for (String next : metrics) {
+            version += versions[stripe(next)];
+        }
+        return version;
+    }
+
+    private static int stripe(String metric) {
+        return (metric.hashCode() & 0x7fffffff) % VERSION_STRIPES;
+    }
+
+    private static long bytes(Entry entry) {
+        long bytes = ENTRY_BYTES;
+        for (List<Row> bin : entry.bins.values()) {
+            for (Row next : bin) {
+                double[] values = next.getValues();
+                bytes += ROW_BYTES + 2L * next.getSeries().length() + (values == null ? 0 : 8L * values.length);
+            }
+        }
+        return bytes;
+    }
+
+    private static void sort(List<Row> rows, OrderBy orderBy) {
+        if (orderBy == OrderBy.time) {
+            rows.sort(comparingLong(Row::getTimestamp));
+        } else {
+            Map<String, Integer> seriesOrder = new HashMap<>();
+            for (Row next : rows) {
+                seriesOrder.putIfAbsent(next.getSeries(), seriesOrder.size());
+            }
+            rows.sort(Comparator.<Row>comparingInt(next -> seriesOrder.get(next.getSeries()))
+                                .thenComparingLong(Row::getTimestamp));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "GroupAggregateCache [maxBytes=" + maxBytes + ", hits=" + hits + ", misses=" + misses + "]";
+    }
+}
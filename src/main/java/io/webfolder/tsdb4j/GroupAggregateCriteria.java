@@ -273,6 +273,35 @@ public class GroupAggregateCriteria implements Criteria {
         return new Builder();
     }
 
+    /**
+     * Copy of the criteria with another time range and aggregate functions.
+     */
+    GroupAggregateCriteria with(long from, long to, EnumSet<AggregateFunction> functions) {
+        return with(metrics, from, to, functions);
+    }
+
+    /**
+     * Copy of the criteria with other metrics, time range and aggregate functions.
+     */
+    GroupAggregateCriteria with(List<String> metrics, long from, long to, EnumSet<AggregateFunction> functions) {
+        GroupAggregateCriteria copy = new GroupAggregateCriteria();
+        copy.metrics = metrics;
+        copy.step = step;
+        copy.functions = functions;
+        copy.from = from;
+        copy.to = to;
+        copy.tagName = tagName;
+        copy.tagValues = tagValues;
+        copy.groupByTag = groupByTag;
+        copy.pivotByTag = pivotByTag;
+        copy.orderBy = orderBy;
+        copy.filter1 = filter1;
+        copy.filter2 = filter2;
+        copy.limit = limit;
+        copy.offset = offset;
+        return copy;
+    }
+
     public List<String> getMetrics() {
         return metrics;
     }
@@ -0,0 +1,10 @@
+package io.webfolder.tsdb4j;
+
+/**
+ * Receives the samples which arrive later than the window of a {@link ReorderBuffer}.
+ */
+@FunctionalInterface
+public interface LateSampleHandler {
+
+    void onLateSample(long timestamp, String series, double value);
+}
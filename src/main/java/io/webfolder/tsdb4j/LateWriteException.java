@@ -0,0 +1,20 @@
+package io.webfolder.tsdb4j;
+
+import static io.webfolder.tsdb4j.Status.AKU_ELATE_WRITE;
+
+/**
+ * The sample is older than the head of the series and can't be written.
+ */
+public class LateWriteException extends WriteException {
+
+    private static final long serialVersionUID = -1833950183768404522L;
+
+    LateWriteException(String series, long timestamp) {
+        super(AKU_ELATE_WRITE, series, timestamp);
+    }
+
+    @Override
+    public String toString() {
+        return "LateWriteException [series=" + getSeries() + ", timestamp=" + getTimestamp() + "]";
+    }
+}
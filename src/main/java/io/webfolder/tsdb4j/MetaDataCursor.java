@@ -2,7 +2,6 @@ package io.webfolder.tsdb4j;
 
 import static java.util.Collections.emptyList;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -16,11 +15,9 @@ public class MetaDataCursor implements Iterable<String>, Iterator<String>, AutoC
 
     private long cursor;
 
-    private List<Tag> tags;
-
     private String series;
 
-    private String metric;
+    private ParsedSeries parsed;
 
     public MetaDataCursor(long cursor) {
         this.cursor = cursor;
@@ -33,6 +30,7 @@ public class MetaDataCursor implements Iterable<String>, Iterator<String>, AutoC
 
     @Override
     public String next() {
+        parsed = null;
         return series = _next(cursor);
     }
 
@@ -51,38 +49,30 @@ public class MetaDataCursor implements Iterable<String>, Iterator<String>, AutoC
         return series;
     }
 
-    public String getMetric() {
-        if (metric != null) {
-            return metric;
-        }
-        int i;
-        for (i = 0; i < series.length() && series.charAt(i) != ' '; i++) {
-            // no op
+    /**
+     * Parsed parts of the current series, shared with the other rows and cursors.
+     */
+    public ParsedSeries getParsedSeries() {
+        if (parsed == null && series != null) {
+            parsed = SeriesParser.parse(series);
         }
-        return metric = series.substring(0, i);
+        return parsed;
     }
 
-    public List<Tag> getTags() {
+    /**
+     * Name of the series up to the first tag, not split into metrics and aggregate functions.
+     */
+    public String getMetric() {
         if (series == null) {
-            return emptyList();
+            return null;
         }
-        if (tags != null) {
-            return tags;
-        }
-        String[] list = series.split(" ");
-        tags = list.length <= 1 ? emptyList() : new ArrayList<>(list.length);
-        for (int i = 0; i < list.length; i++) {
-            String next = list[i];
-            int len = next.length();
-            for (int j = 0; j < len; j++) {
-                char c = next.charAt(j);
-                if (c == '=') {
-                    Tag tag = new Tag(next.substring(0, j), next.substring(j + 1, len));
-                    tags.add(tag);
-                }
-            }
-        }
-        return tags;
+        int end = series.indexOf(' ');
+        return end < 0 ? series : series.substring(0, end);
+    }
+
+    public List<Tag> getTags() {
+        ParsedSeries parsed = getParsedSeries();
+        return parsed != null ? parsed.getTags() : emptyList();
     }
 
     @Override
@@ -0,0 +1,24 @@
+package io.webfolder.tsdb4j;
+
+/**
+ * What {@link AsyncWriter} does when the write queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait until the queue has free space.
+     */
+    block,
+    /**
+     * Discard the oldest queued sample.
+     */
+    drop_oldest,
+    /**
+     * Throw {@link TsdbException}.
+     */
+    fail;
+
+    @Override
+    public String toString() {
+        return name();
+    }
+}
@@ -0,0 +1,187 @@
+package io.webfolder.tsdb4j;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable parts of a series name returned by a query.
+ *
+ * <pre>
+ * cpu.usage host=a region=eu
+ * cpu.usage:max host=a
+ * cpu.usage:min|cpu.usage:max host=a
+ * </pre>
+ *
+ * Instances are shared, see {@link SeriesParser}.
+ */
+public final class ParsedSeries {
+
+    private static final AggregateFunction[] AGGREGATE_FUNCTIONS = AggregateFunction.values();
+
+    private final String series;
+
+    private final List<String> metrics;
+
+    private final List<AggregateFunction> aggregateFunctions;
+
+    private final List<Tag> tags;
+
+    private final Map<String, String> tagMap;
+
+    private ParsedSeries(String series, List<String> metrics,
+                         List<AggregateFunction> aggregateFunctions, List<Tag> tags) {
+        this.series = series;
+        this.metrics = metrics;
+        this.aggregateFunctions = aggregateFunctions;
+        this.tags = tags;
+        if (tags.isEmpty()) {
+            this.tagMap = emptyMap();
+        } else {
+            Map<String, String> map = new LinkedHashMap<>();
+            for (Tag next : tags) {
+                map.put(next.getName(), next.getValue());
+            }
+            this.tagMap = unmodifiableMap(map);
+        }
+    }
+
+    static ParsedSeries parse(String series) {
+        int len = series.length();
+        int end = series.indexOf(' ');
+        if (end < 0) {
+            end = len;
+        }
+        List<String> metrics = new ArrayList<>(1);
+        List<AggregateFunction> aggregateFunctions = null;
+        int start = 0;
+        int aggregateStart = -1;
+        for (int i = 0; i <= end; i++) {
+            char c = i < end ? series.charAt(i) : '|';
+            if (c == ':') {
+                aggregateStart = i;
+            } else if (c == '|') {
+                // an unknown suffix is part of the metric name, e.g. foo:bar
+                AggregateFunction function = aggregateStart > start ? aggregateFunction(series, aggregateStart + 1, i) : null;
+                if (function != null) {
+                    if (aggregateFunctions == null) {
+                        aggregateFunctions = new ArrayList<>(1);
+                    }
+                    aggregateFunctions.add(function);
+                }
+                metrics.add(series.substring(start, function != null ? aggregateStart : i));
+                start = i + 1;
+                aggregateStart = -1;
+            }
+        }
+        List<Tag> tags = null;
+        int tagStart = end + 1;
+        while (tagStart < len) {
+            int tagEnd = series.indexOf(' ', tagStart);
+            if (tagEnd < 0) {
+                tagEnd = len;
+            }
+            int separator = series.indexOf('=', tagStart);
+            if (separator > tagStart && separator < tagEnd) {
+                if (tags == null) {
+                    tags = new ArrayList<>();
+                }
+                tags.add(new Tag(series.substring(tagStart, separator), series.substring(separator + 1, tagEnd)));
+            }
+            tagStart = tagEnd + 1;
+        }
+        if (tags != null) {
+            Collections.sort(tags);
+        }
+        return new ParsedSeries(series,
+                                unmodifiableList(metrics),
+                                aggregateFunctions == null ? emptyList() : unmodifiableList(aggregateFunctions),
+                                tags == null ? emptyList() : unmodifiableList(tags));
+    }
+
+    private static AggregateFunction aggregateFunction(String series, int start, int end) {
+        for (AggregateFunction next : AGGREGATE_FUNCTIONS) {
+            String name = next.name();
+            if (name.length() == end - start && series.startsWith(name, start)) {
+                return next;
+            }
+        }
+        return null;
+    }
+
+    public String getSeries() {
+        return series;
+    }
+
+    /**
+     * First metric of the series.
+     */
+    public String getMetric() {
+        return metrics.isEmpty() ? null : metrics.get(0);
+    }
+
+    /**
+     * Metrics of a compound series, without the aggregate functions.
+     */
+    public List<String> getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Aggregate function of the first metric, <code>null</code> if the series is not aggregated.
+     */
+    public AggregateFunction getAggregateFunction() {
+        return aggregateFunctions.isEmpty() ? null : aggregateFunctions.get(0);
+    }
+
+    public List<AggregateFunction> getAggregateFunctions() {
+        return aggregateFunctions;
+    }
+
+    /**
+     * Tags sorted by name.
+     */
+    public List<Tag> getTags() {
+        return tags;
+    }
+
+    public Map<String, String> getTagMap() {
+        return tagMap;
+    }
+
+    /**
+     * Value of the tag, <code>null</code> if the series has no such tag.
+     */
+    public String getTag(String name) {
+        return tagMap.get(name);
+    }
+
+    @Override
+    public int hashCode() {
+        return series.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        ParsedSeries other = (ParsedSeries) obj;
+        return series.equals(other.series);
+    }
+
+    @Override
+    public String toString() {
+        return "ParsedSeries [series=" + series + "]";
+    }
+}
@@ -0,0 +1,189 @@
+package io.webfolder.tsdb4j;
+
+import static io.webfolder.tsdb4j.AggregateFunction.count;
+import static io.webfolder.tsdb4j.AggregateFunction.max;
+import static io.webfolder.tsdb4j.AggregateFunction.mean;
+import static io.webfolder.tsdb4j.AggregateFunction.min;
+import static java.lang.Double.NaN;
+import static java.lang.Double.isNaN;
+import static java.util.Arrays.fill;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregate state of a series (or of a bin of a series) computed over a sub-range of a query.
+ *
+ * States of consecutive sub-ranges are merged in time order: count and sum are added, mean is
+ * weighted by count, min and max are compared, first is taken from the earlier and last from the
+ * later state, min_timestamp and max_timestamp follow the min and the max.
+ */
+final class PartialAggregate {
+
+    private static final int FUNCTIONS = AggregateFunction.values().length;
+
+    private final String metric;
+
+    private final String tags;
+
+    private final long timestamp;
+
+    private final double[] values = new double[FUNCTIONS];
+
+    private final long[] timestamps = new long[FUNCTIONS];
+
+    PartialAggregate(String metric, String tags, long timestamp) {
+        this.metric = metric;
+        this.tags = tags;
+        this.timestamp = timestamp;
+        fill(values, NaN);
+    }
+
+    /**
+     * Functions to query for each sub-range so that the partial states of the requested functions can be merged.
+     */
+    static EnumSet<AggregateFunction> required(EnumSet<AggregateFunction> functions) {
+        EnumSet<AggregateFunction> required = EnumSet.copyOf(functions);
+        if (functions.contains(mean)) {
+            required.add(count);
+        }
+        if (functions.contains(AggregateFunction.min_timestamp)) {
+            required.add(min);
+        }
+        if (functions.contains(AggregateFunction.max_timestamp)) {
+            required.add(max);
+        }
+        return required;
+    }
+
+    /**
+     * Tags of a series name with the leading space, empty if the series has no tag.
+     */
+    static String tags(String series) {
+        int start = series.indexOf(' ');
+        return start < 0 ? "" : series.substring(start);
+    }
+
+    /**
+     * Adds the states of a later sub-range.
+     */
+    static void fold(Map<String, PartialAggregate> total, Map<String, PartialAggregate> later) {
+        for (Map.Entry<String, PartialAggregate> next : later.entrySet()) {
+            PartialAggregate state = total.get(next.getKey());
+            if (state == null) {
+                total.put(next.getKey(), next.getValue());
+            } else {
+                state.merge(next.getValue());
+            }
+        }
+    }
+
+    void set(AggregateFunction function, double value, long timestamp) {
+        values[function.ordinal()] = value;
+        timestamps[function.ordinal()] = timestamp;
+    }
+
+    double get(AggregateFunction function) {
+        return values[function.ordinal()];
+    }
+
+    long getTimestamp(AggregateFunction function) {
+        return timestamps[function.ordinal()];
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    String getMetric() {
+        return metric;
+    }
+
+    String getTags() {
+        return tags;
+    }
+
+    /**
+     * Series name of the merged row.
+     */
+    String getSeries(List<AggregateFunction> functions) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < functions.size(); i++) {
+            if (i > 0) {
+                builder.append('|');
+            }
+            builder.append(metric).append(':').append(functions.get(i).name());
+        }
+        return builder.append(tags).toString();
+    }
+
+    private void merge(PartialAggregate later) {
+        // compare min and max before they are merged, min_timestamp and max_timestamp follow them
+        boolean laterMin = isLess(later.get(min), get(min));
+        boolean laterMax = isLess(get(max), later.get(max));
+        double countA = get(count);
+        double countB = later.get(count);
+        for (AggregateFunction next : AggregateFunction.values()) {
+            int i = next.ordinal();
+            double a = values[i];
+            double b = later.values[i];
+            if (isNaN(b)) {
+                continue;
+            }
+            if (isNaN(a)) {
+                values[i] = b;
+                timestamps[i] = later.timestamps[i];
+                continue;
+            }
+            switch (next) {
+                case count:
+                case sum:
+                    values[i] = a + b;
+                    timestamps[i] = later.timestamps[i];
+                    break;
+                case mean:
+                    if (countA + countB > 0) {
+                        values[i] = (a * countA + b * countB) / (countA + countB);
+                    }
+                    timestamps[i] = later.timestamps[i];
+                    break;
+                case min:
+                case min_timestamp:
+                    if (laterMin) {
+                        values[i] = b;
+                        timestamps[i] = later.timestamps[i];
+                    }
+                    break;
+                case max:
+                case max_timestamp:
+                    if (laterMax) {
+                        values[i] = b;
+                        timestamps[i] = later.timestamps[i];
+                    }
+                    break;
+                case first:
+                    break;
+                case last:
+                    values[i] = b;
+                    timestamps[i] = later.timestamps[i];
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Strict comparison, on ties the earlier state wins.
+     */
+    private static boolean isLess(double a, double b) {
+        if (isNaN(a)) {
+            return false;
+        }
+        return isNaN(b) || a < b;
+    }
+
+    @Override
+    public String toString() {
+        return "PartialAggregate [metric=" + metric + ", tags=" + tags + ", timestamp=" + timestamp + "]";
+    }
+}
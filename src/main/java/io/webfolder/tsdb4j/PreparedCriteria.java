@@ -0,0 +1,305 @@
+package io.webfolder.tsdb4j;
+
+import static java.nio.ByteBuffer.allocateDirect;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Criteria compiled once to a JSON template, the time range and the tag values are bound on each query.
+ *
+ * The template is built with the criteria builders, tag values to bind are written as
+ * {@link #PARAMETER} or {@link #parameter(int)}, they are bound in the order of the template.
+ * Bound values are encoded in a reusable direct buffer which is passed to the native query
+ * without creating the JSON string:
+ *
+ * <pre>
+ * PreparedCriteria&lt;SimpleCursor&gt; prepared = PreparedCriteria.prepare(SelectCriteria.builder()
+ *                                                 .select("cpu")
+ *                                                 .from(1)
+ *                                                 .to(2)
+ *                                                 .where("host", Arrays.asList(PreparedCriteria.PARAMETER))
+ *                                             .build());
+ * SimpleCursor cursor = session.query(prepared.range(from, to).parameter(0, "server1"));
+ * </pre>
+ *
+ * This class is not thread-safe.
+ *
+ * @param <T> cursor type of the query
+ */
+public class PreparedCriteria<T extends BaseCursor> implements Criteria {
+
+    /**
+     * Tag value of the template which is bound with {@link #parameter(int, String)}.
+     */
+    public static final String PARAMETER = "?";
+
+    /**
+     * Numbered tag value of the template, the builders remove the duplicated values of a tag
+     * so the parameters of the same tag must be numbered.
+     */
+    public static String parameter(int number) {
+        return PARAMETER + number;
+    }
+
+    private static final int FROM = -1;
+
+    private static final int TO = -2;
+
+    private static final int MAX_LONG_DIGITS = 20;
+
+    // template parts, parts[i] is followed by slots[i]
+    private final byte[][] parts;
+
+    private final int[] slots;
+
+    private final String[] parameters;
+
+    private long from;
+
+    private long to;
+
+    private ByteBuffer buffer;
+
+    private boolean encoded;
+
+    private PreparedCriteria(String json, long from, long to) {
+        String range = "\"range\":{\"from\":" + from + ",\"to\":" + to + "}";
+        int rangeStart = json.indexOf(range);
+        if (rangeStart < 0) {
+            throw new IllegalArgumentException("[from] and [to] are required to prepare a criteria");
+        }
+        List<byte[]> parts = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        String fromPrefix = "\"range\":{\"from\":";
+        int fromStart = rangeStart + fromPrefix.length();
+        int toStart = fromStart + Long.toString(from).length() + ",\"to\":".length();
+        int toEnd = toStart + Long.toString(to).length();
+        int parameterCount = split(json.substring(0, fromStart), parts, slots, 0);
+        slots.add(FROM);
+        parts.add(",\"to\":".getBytes(UTF_8));
+        slots.add(TO);
+        parameterCount = split(json.substring(toEnd), parts, slots, parameterCount);
+        this.parts = parts.toArray(new byte[parts.size()][]);
+        this.slots = new int[slots.size()];
+        for (int i = 0; i < this.slots.length; i++) {
+            this.slots[i] = slots.get(i);
+        }
+        this.parameters = new String[parameterCount];
+        this.from = from;
+        this.to = to;
+    }
+
+    public static PreparedCriteria<SimpleCursor> prepare(SelectCriteria template) {
+        return prepare((Criteria) template);
+    }
+
+    public static PreparedCriteria<AggregateCursor> prepare(AggregateCriteria template) {
+        return prepare((Criteria) template);
+    }
+
+    public static PreparedCriteria<GroupAggregateCursor> prepare(GroupAggregateCriteria template) {
+        return prepare((Criteria) template);
+    }
+
+    public static PreparedCriteria<CompoundCursor> prepare(JoinCriteria template) {
+        return prepare((Criteria) template);
+    }
+
+    private static <T extends BaseCursor> PreparedCriteria<T> prepare(Criteria template) {
+        if (template == null) {
+            throw new IllegalArgumentException("template");
+        }
+        String json = template.toJson();
+        if (json == null || template.getFrom() <= 0 || template.getTo() <= 0) {
+            throw new IllegalArgumentException("[from] and [to] are required to prepare a criteria");
+        }
+        return new PreparedCriteria<>(json, template.getFrom(), template.getTo());
+    }
+
+    /**
+     * Splits a part of the template at the parameters.
+     *
+     * @return number of parameters
+     */
+    private static int split(String json, List<byte[]> parts, List<Integer> slots, int parameterCount) {
+        String prefix = "\"" + PARAMETER;
+        int start = 0;
+        int next = 0;
+        while ((next = json.indexOf(prefix, next)) >= 0) {
+            int end = next + prefix.length();
+            while (end < json.length() && Character.isDigit(json.charAt(end))) {
+                end++;
+            }
+            if (end < json.length() && json.charAt(end) == '"') {
+                parts.add(json.substring(start, next).getBytes(UTF_8));
+                slots.add(parameterCount++);
+                start = end + 1;
+            }
+            next = end;
+        }
+        parts.add(json.substring(start).getBytes(UTF_8));
+        return parameterCount;
+    }
+
+    public PreparedCriteria<T> range(long from, long to) {
+        if (from <= 0) {
+            throw new InvalidIntervalException("[from] must be greater than: [0]");
+        }
+        if (to <= 0) {
+            throw new InvalidIntervalException("[to] must be greater than: [0]");
+        }
+        this.from = from;
+        this.to = to;
+        encoded = false;
+        return this;
+    }
+
+    public PreparedCriteria<T> parameter(int index, String value) {
+        if (index < 0 || index >= parameters.length) {
+            throw new IndexOutOfBoundsException("index: " + index + ", parameters: " + parameters.length);
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("value");
+        }
+        parameters[index] = value;
+        encoded = false;
+        return this;
+    }
+
+    public int getParameterCount() {
+        return parameters.length;
+    }
+
+    @Override
+    public long getFrom() {
+        return from;
+    }
+
+    @Override
+    public long getTo() {
+        return to;
+    }
+
+    /**
+     * JSON of the bound query.
+     */
+    @Override
+    public String toJson() {
+        ByteBuffer query = encode();
+        byte[] bytes = new byte[query.limit() - 1];
+        query.duplicate().get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Null terminated UTF-8 JSON of the bound query, the buffer is reused by the next call.
+     */
+    ByteBuffer encode() {
+        if (encoded) {
+            return buffer;
+        }
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i] == null) {
+                throw new IllegalStateException("parameter [" + i + "] is not bound");
+            }
+        }
+        if (buffer == null || buffer.capacity() < capacity()) {
+            buffer = allocateDirect(Integer.highestOneBit(capacity()) << 1);
+        }
+        buffer.clear();
+        for (int i = 0; i < parts.length; i++) {
+            buffer.put(parts[i]);
+            if (i < slots.length) {
+                int slot = slots[i];
+                if (slot == FROM) {
+                    putLong(from);
+                } else if (slot == TO) {
+                    putLong(to);
+                } else {
+                    putString(parameters[slot]);
+                }
+            }
+        }
+        buffer.put((byte) 0);
+        buffer.flip();
+        encoded = true;
+        return buffer;
+    }
+
+    /**
+     * Upper bound of the encoded size.
+     */
+    private int capacity() {
+        int capacity = 2 * MAX_LONG_DIGITS + 1;
+        for (byte[] next : parts) {
+            capacity += next.length;
+        }
+        for (String next : parameters) {
+            // escaped characters take up to 6 bytes
+            capacity += 2 + 6 * next.length();
+        }
+        return capacity;
+    }
+
+    private void putLong(long value) {
+        // range values are positive
+        int start = buffer.position();
+        do {
+            buffer.put((byte) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            byte b = buffer.get(i);
+            buffer.put(i, buffer.get(j));
+            buffer.put(j, b);
+        }
+    }
+
+    private void putString(String value) {
+        buffer.put((byte) '"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer.put((byte) '\\').put((byte) c);
+            } else if (c < 0x20) {
+                putEscape(c);
+            } else if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | (c >> 6)))
+                      .put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xf0 | (cp >> 18)))
+                      .put((byte) (0x80 | ((cp >> 12) & 0x3f)))
+                      .put((byte) (0x80 | ((cp >> 6) & 0x3f)))
+                      .put((byte) (0x80 | (cp & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                putEscape(c);
+            } else {
+                buffer.put((byte) (0xe0 | (c >> 12)))
+                      .put((byte) (0x80 | ((c >> 6) & 0x3f)))
+                      .put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+        buffer.put((byte) '"');
+    }
+
+    private void putEscape(char c) {
+        String hex = "0123456789abcdef";
+        buffer.put((byte) '\\').put((byte) 'u')
+              .put((byte) hex.charAt((c >> 12) & 0xf))
+              .put((byte) hex.charAt((c >> 8) & 0xf))
+              .put((byte) hex.charAt((c >> 4) & 0xf))
+              .put((byte) hex.charAt(c & 0xf));
+    }
+
+    @Override
+    public String toString() {
+        return "PreparedCriteria [from=" + from + ", to=" + to + ", parameters=" + Arrays.toString(parameters) + "]";
+    }
+}
@@ -0,0 +1,413 @@
+package io.webfolder.tsdb4j;
+
+import static java.util.Collections.singletonList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Comparator.comparingLong;
+import static java.util.concurrent.CompletableFuture.allOf;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs batches of queries concurrently on a {@link SessionPool}.
+ *
+ * A dashboard refresh issues many independent queries, running them at the same time makes
+ * the latency of the batch the latency of the slowest query instead of the sum of all queries.
+ * Criteria with the same JSON in a batch are run once and share the result.
+ *
+ * This class is thread-safe.
+ */
+public class QueryExecutor implements AutoCloseable {
+
+    private final SessionPool pool;
+
+    private final int parallelism;
+
+    private final ExecutorService executor;
+
+    private final AtomicLong rollupQueries = new AtomicLong();
+
+    /**
+     * @param pool sessions of the queries
+     * @param parallelism maximum number of concurrent queries
+     */
+    public QueryExecutor(SessionPool pool, int parallelism) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("[parallelism] must be greater or equal than: [1]");
+        }
+        this.pool = pool;
+        this.parallelism = parallelism;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "tsdb4j-query-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Submits a query.
+     *
+     * A group-aggregate query is read from the rollup series of the database when a rollup
+     * matches its metrics, functions, step and range, see {@link Database#addRollup(RollupRule)}.
+     */
+    public CompletableFuture<QueryResult> submit(Criteria criteria) {
+        if (criteria == null) {
+            throw new IllegalArgumentException("criteria");
+        }
+        long submitted = System.nanoTime();
+        if (criteria instanceof GroupAggregateCriteria && pool.getRollups() != null) {
+            GroupAggregateCriteria groupAggregate = (GroupAggregateCriteria) criteria;
+            Rollups.Route route = pool.getRollups().route(groupAggregate);
+            if (route != null) {
+                rollupQueries.incrementAndGet();
+                return submitRollup(groupAggregate, route, submitted);
+            }
+        }
+        return CompletableFuture.supplyAsync(() -> run(criteria, submitted), executor);
+    }
+
+    /**
+     * Submits the queries of a batch.
+     *
+     * @return futures in the order of the criteria, identical criteria share the same future
+     */
+    public List<CompletableFuture<QueryResult>> submitAll(List<? extends Criteria> batch) {
+        if (batch == null) {
+            throw new IllegalArgumentException("batch");
+        }
+        Map<String, CompletableFuture<QueryResult>> submitted = new HashMap<>();
+        List<CompletableFuture<QueryResult>> futures = new ArrayList<>(batch.size());
+        for (Criteria next : batch) {
+            if (next == null) {
+                throw new IllegalArgumentException("criteria");
+            }
+            CompletableFuture<QueryResult> future = submitted.get(next.toJson());
+            if (future == null) {
+                future = submit(next);
+                submitted.put(next.toJson(), future);
+            }
+            futures.add(future);
+        }
+        return futures;
+    }
+
+    /**
+     * Runs the queries of a batch and waits for all of them.
+     *
+     * @return results in the order of the criteria
+     */
+    public List<QueryResult> executeAll(List<? extends Criteria> batch) {
+        return join(submitAll(batch));
+    }
+
+    static List<QueryResult> join(List<CompletableFuture<QueryResult>> futures) {
+        try {
+            allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        List<QueryResult> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<QueryResult> next : futures) {
+            results.add(next.join());
+        }
+        return results;
+    }
+
+    /**
+     * Runs an aggregate query in parallel.
+     *
+     * The time range is split into <code>splits</code> sub-ranges which are queried concurrently,
+     * the partial aggregates are merged into the same rows a single query returns. The query is not
+     * split if it has no bounded time range.
+     */
+    public QueryResult executeParallel(AggregateCriteria criteria, int splits) {
+        if (criteria == null) {
+            throw new IllegalArgumentException("criteria");
+        }
+        long start = System.nanoTime();
+        long[] bounds = split(criteria.getFrom(), criteria.getTo(), splits, 1);
+        if (bounds == null) {
+            return join(singletonList(submit(criteria))).get(0);
+        }
+        AggregateFunction function = criteria.getAggregateFunction();
+        EnumSet<AggregateFunction> required = PartialAggregate.required(EnumSet.of(function));
+        List<CompletableFuture<QueryResult>> futures = new ArrayList<>();
+        for (int i = 0; i < bounds.length - 1; i++) {
+            for (AggregateFunction next : required) {
+                futures.add(submit(criteria.with(bounds[i], bounds[i + 1], next)));
+            }
+        }
+        List<QueryResult> partials = join(futures);
+        Map<String, PartialAggregate> total = new LinkedHashMap<>();
+        int index = 0;
+        for (int i = 0; i < bounds.length - 1; i++) {
+            Map<String, PartialAggregate> states = new LinkedHashMap<>();
+            for (AggregateFunction next : required) {
+                for (Row row : partials.get(index++).getRows()) {
+                    String metric = row.getParsedSeries().getMetric();
+                    String tags = PartialAggregate.tags(row.getSeries());
+                    String key = metric + tags;
+                    PartialAggregate state = states.get(key);
+                    if (state == null) {
+                        state = new PartialAggregate(metric, tags, row.getTimestamp());
+                        states.put(key, state);
+                    }
+                    state.set(next, row.getValue(), row.getTimestamp());
+                }
+            }
+            PartialAggregate.fold(total, states);
+        }
+        List<AggregateFunction> functions = singletonList(function);
+        List<Row> rows = new ArrayList<>(total.size());
+        for (PartialAggregate next : total.values()) {
+            rows.add(new Row(next.getTimestamp(function), next.getSeries(functions), new double[] { next.get(function) }));
+        }
+        return new QueryResult(criteria, unmodifiableList(rows), 0, System.nanoTime() - start);
+    }
+
+    /**
+     * Runs a group-aggregate query in parallel.
+     *
+     * The time range is split at step boundaries into <code>splits</code> sub-ranges which are queried
+     * concurrently, the partial aggregates are merged into the same rows a single query returns.
+     * The query is not split if it has a limit, an offset or a filter.
+     */
+    public QueryResult executeParallel(GroupAggregateCriteria criteria, int splits) {
+        if (criteria == null) {
+            throw new IllegalArgumentException("criteria");
+        }
+        long start = System.nanoTime();
+        long[] bounds = null;
+        if (criteria.getLimit() < 0 && criteria.getOffset() < 0 && criteria.getFilter1() == null
+                && criteria.getStep() != null && criteria.getStep().toNanos() > 0) {
+            bounds = split(criteria.getFrom(), criteria.getTo(), splits, criteria.getStep().toNanos());
+        }
+        if (bounds == null) {
+            return join(singletonList(submit(criteria))).get(0);
+        }
+        EnumSet<AggregateFunction> required = PartialAggregate.required(criteria.getFunctions());
+        List<CompletableFuture<QueryResult>> futures = new ArrayList<>();
+        for (int i = 0; i < bounds.length - 1; i++) {
+            futures.add(submit(criteria.with(bounds[i], bounds[i + 1], required)));
+        }
+        Map<String, PartialAggregate> total = new LinkedHashMap<>();
+        Map<String, Integer> seriesOrder = new HashMap<>();
+        for (QueryResult partial : join(futures)) {
+            Map<String, PartialAggregate> states = new LinkedHashMap<>();
+            for (Row row : partial.getRows()) {
+                ParsedSeries parsed = row.getParsedSeries();
+                String tags = PartialAggregate.tags(row.getSeries());
+                String series = parsed.getMetric() + tags;
+                if (!seriesOrder.containsKey(series)) {
+                    seriesOrder.put(series, seriesOrder.size());
+                }
+                PartialAggregate state = new PartialAggregate(parsed.getMetric(), tags, row.getTimestamp());
+                List<AggregateFunction> functions = parsed.getAggregateFunctions();
+                double[] values = row.getValues();
+                for (int i = 0; i < functions.size() && values != null && i < values.length; i++) {
+                    state.set(functions.get(i), values[i], row.getTimestamp());
+                }
+                states.put(series + '@' + row.getTimestamp(), state);
+            }
+            PartialAggregate.fold(total, states);
+        }
+        List<PartialAggregate> states = new ArrayList<>(total.values());
+        if (criteria.getOrderBy() == OrderBy.time) {
+            states.sort(comparingLong(PartialAggregate::getTimestamp));
+        } else {
+            states.sort(Comparator.<PartialAggregate>comparingInt(next -> seriesOrder.get(next.getMetric() + next.getTags()))
+                                  .thenComparingLong(PartialAggregate::getTimestamp));
+        }
+        List<AggregateFunction> functions = new ArrayList<>(criteria.getFunctions());
+        List<Row> rows = new ArrayList<>(states.size());
+        for (PartialAggregate next : states) {
+            double[] values = new double[functions.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = next.get(functions.get(i));
+            }
+            rows.add(new Row(next.getTimestamp(), next.getSeries(functions), values));
+        }
+        return new QueryResult(criteria, unmodifiableList(rows), 0, System.nanoTime() - start);
+    }
+
+    /**
+     * Number of group-aggregate queries read from rollup series.
+     */
+    public long getRollupQueryCount() {
+        return rollupQueries.get();
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Stops the executor threads, running queries are completed. The pool is not closed.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Boundaries of the sub-ranges aligned to <code>align</code>, <code>null</code> if the range is not split.
+     */
+    private static long[] split(long from, long to, int splits, long align) {
+        if (splits < 1) {
+            throw new IllegalArgumentException("[splits] must be greater or equal than: [1]");
+        }
+        if (splits == 1 || from <= 0 || to <= from) {
+            return null;
+        }
+        long units = (to - from + align - 1) / align;
+        long unitsPerSplit = (units + splits - 1) / splits;
+        if (units < 2) {
+            return null;
+        }
+        List<Long> bounds = new ArrayList<>(splits + 1);
+        for (long next = from; next < to; next += unitsPerSplit * align) {
+            bounds.add(next);
+        }
+        bounds.add(to);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the routed range from the rollup series, one query per metric and rollup function,
+     * and the rest of the range from the raw series.
+     */
+    private CompletableFuture<QueryResult> submitRollup(GroupAggregateCriteria criteria, Rollups.Route route, long submitted) {
+        List<AggregateFunction> functions = new ArrayList<>(criteria.getFunctions());
+        EnumSet<AggregateFunction> needed = EnumSet.noneOf(AggregateFunction.class);
+        for (AggregateFunction next : functions) {
+            needed.addAll(Rollups.stored(next));
+        }
+        List<String> metrics = new ArrayList<>();
+        List<AggregateFunction> stored = new ArrayList<>();
+        List<CompletableFuture<QueryResult>> futures = new ArrayList<>();
+        for (String metric : criteria.getMetrics()) {
+            RollupRule rule = route.rules.get(metric);
+            for (AggregateFunction next : needed) {
+                GroupAggregateCriteria rollup = criteria.with(singletonList(rule.getRollupMetric(metric, next)),
+                                                              route.start, route.bound,
+                                                              EnumSet.of(Rollups.merge(next)));
+                metrics.add(metric);
+                stored.add(next);
+                futures.add(CompletableFuture.supplyAsync(() -> run(rollup, submitted), executor));
+            }
+        }
+        CompletableFuture<QueryResult> head = null;
+        CompletableFuture<QueryResult> tail = null;
+        List<CompletableFuture<QueryResult>> all = new ArrayList<>(futures);
+        if (criteria.getFrom() < route.start) {
+            GroupAggregateCriteria uncovered = criteria.with(criteria.getFrom(), route.start, criteria.getFunctions());
+            head = CompletableFuture.supplyAsync(() -> run(uncovered, submitted), executor);
+            all.add(head);
+        }
+        if (route.bound < criteria.getTo()) {
+            GroupAggregateCriteria rest = criteria.with(route.bound, criteria.getTo(), criteria.getFunctions());
+            tail = CompletableFuture.supplyAsync(() -> run(rest, submitted), executor);
+            all.add(tail);
+        }
+        CompletableFuture<QueryResult> headResult = head;
+        CompletableFuture<QueryResult> tailResult = tail;
+        return allOf(all.toArray(new CompletableFuture<?>[all.size()])).thenApply(ignore -> {
+            Map<String, PartialAggregate> states = new LinkedHashMap<>();
+            for (int i = 0; i < futures.size(); i++) {
+                for (Row row : futures.get(i).join().getRows()) {
+                    String tags = PartialAggregate.tags(row.getSeries());
+                    String key = metrics.get(i) + tags + '@' + row.getTimestamp();
+                    PartialAggregate state = states.get(key);
+                    if (state == null) {
+                        state = new PartialAggregate(metrics.get(i), tags, row.getTimestamp());
+                        states.put(key, state);
+                    }
+                    state.set(stored.get(i), row.getValue(), row.getTimestamp());
+                }
+            }
+            List<String> order = criteria.getMetrics();
+            Comparator<PartialAggregate> bySeries = Comparator.<PartialAggregate>comparingInt(next -> order.indexOf(next.getMetric()))
+                                                              .thenComparing(PartialAggregate::getTags);
+            List<PartialAggregate> sorted = new ArrayList<>(states.values());
+            if (criteria.getOrderBy() == OrderBy.time) {
+                sorted.sort(Comparator.<PartialAggregate>comparingLong(PartialAggregate::getTimestamp).thenComparing(bySeries));
+            } else {
+                sorted.sort(bySeries.thenComparingLong(PartialAggregate::getTimestamp));
+            }
+            List<Row> rows = new ArrayList<>(sorted.size());
+            if (headResult != null) {
+                rows.addAll(headResult.join().getRows());
+            }
+            for (PartialAggregate next : sorted) {
+                double[] values = new double[functions.size()];
+                for (int i = 0; i < values.length; i++) {
+                    AggregateFunction function = functions.get(i);
+                    values[i] = function == AggregateFunction.mean ?
+                                    next.get(AggregateFunction.sum) / next.get(AggregateFunction.count) :
+                                    next.get(function);
+                }
+                rows.add(new Row(next.getTimestamp(), next.getSeries(functions), values));
+            }
+            if (tailResult != null) {
+                rows.addAll(tailResult.join().getRows());
+            }
+            if ((headResult != null || tailResult != null) && criteria.getOrderBy() != OrderBy.time) {
+                Map<String, Integer> seriesOrder = new HashMap<>();
+                for (Row next : rows) {
+                    seriesOrder.putIfAbsent(next.getSeries(), seriesOrder.size());
+                }
+                rows.sort(Comparator.comparingInt(next -> seriesOrder.get(next.getSeries())));
+            }
+            return new QueryResult(criteria, unmodifiableList(rows), 0, System.nanoTime() - submitted);
+        });
+    }
+
+    private QueryResult run(Criteria criteria, long submitted) {
+        List<Row> rows = new ArrayList<>();
+        try (Session session = pool.borrow()) {
+            long start = System.nanoTime();
+            Cursor cursor = session.query(criteria, QueryOptions.DEFAULT);
+            if (cursor == null) {
+                throw new TsdbException("invalid criteria: " + criteria);
+            }
+            try {
+                while (cursor.hasNext()) {
+                    String series = cursor.next();
+                    if (series != null) {
+                        rows.add(new Row(cursor.getTimestamp(), series, cursor.getValues()));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            return new QueryResult(criteria, unmodifiableList(rows), start - submitted, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QueryExecutor [parallelism=" + parallelism + "]";
+    }
+}
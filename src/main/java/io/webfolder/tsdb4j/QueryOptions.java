@@ -0,0 +1,80 @@
+package io.webfolder.tsdb4j;
+
+/**
+ * Read options of a query cursor.
+ *
+ * In read-ahead mode ({@link Builder#prefetch(boolean)}) a native worker thread reads the next
+ * <code>bufferSize</code> bytes of samples while the cursor consumes the current buffer, so storage
+ * I/O and decompression overlap with the processing of the rows. The time the consuming thread
+ * waits for the storage is reported by {@link BaseCursor#getStallNanos()}.
+ */
+public class QueryOptions {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    public static final QueryOptions DEFAULT = builder().build();
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private boolean prefetch;
+
+    private QueryOptions() {
+        // no op
+    }
+
+    public static class Builder {
+
+        private QueryOptions options = new QueryOptions();
+
+        private Builder() {
+            // no op
+        }
+
+        /**
+         * Size of the native read buffer in bytes, doubled in read-ahead mode.
+         */
+        public Builder bufferSize(int bufferSize) {
+            if (bufferSize < 1024) {
+                throw new IllegalArgumentException("[bufferSize] must be greater or equal than: [1024]");
+            }
+            options.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * Reads the next buffer on a background thread.
+         */
+        public Builder prefetch(boolean prefetch) {
+            options.prefetch = prefetch;
+            return this;
+        }
+
+        public QueryOptions build() {
+            return options;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Read-ahead mode with the given buffer size.
+     */
+    public static QueryOptions prefetch(int bufferSize) {
+        return builder().bufferSize(bufferSize).prefetch(true).build();
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryOptions [bufferSize=" + bufferSize + ", prefetch=" + prefetch + "]";
+    }
+}
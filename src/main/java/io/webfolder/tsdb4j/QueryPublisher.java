@@ -0,0 +1,237 @@
+package io.webfolder.tsdb4j;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Demand-driven publisher of the rows of a query.
+ *
+ * Every subscription borrows a session from the pool and opens its own cursor. Rows are read
+ * on the given executor, only as many as the subscriber requested, so a slow subscriber holds
+ * no more than its demand in memory. The cursor is closed and the session is returned on
+ * completion, error and cancel. If the pool has no idle session the read is rescheduled
+ * instead of blocking an executor thread.
+ *
+ * An exception thrown by {@link QuerySubscriber#onNext(Object)} cancels the subscription.
+ *
+ * The publisher follows the Reactive Streams contract. The library targets Java 8, the interfaces
+ * are adapted to <code>java.util.concurrent.Flow</code> or <code>org.reactivestreams</code> with
+ * a thin wrapper:
+ *
+ * <pre>
+ * Flow.Publisher&lt;Row&gt; flow = subscriber -&gt; publisher.subscribe(new QuerySubscriber&lt;Row&gt;() {
+ *     public void onSubscribe(QuerySubscription s) { subscriber.onSubscribe(new Flow.Subscription() {
+ *         public void request(long n) { s.request(n); }
+ *         public void cancel() { s.cancel(); }
+ *     }); }
+ *     public void onNext(Row row) { subscriber.onNext(row); }
+ *     public void onError(Throwable t) { subscriber.onError(t); }
+ *     public void onComplete() { subscriber.onComplete(); }
+ * });
+ * </pre>
+ */
+public class QueryPublisher {
+
+    private static final int MAX_ROWS_PER_TASK = 1024;
+
+    private static final long BORROW_TIMEOUT_MILLIS = 10;
+
+    private final SessionPool pool;
+
+    private final Criteria criteria;
+
+    private final QueryOptions options;
+
+    private final Executor executor;
+
+    QueryPublisher(SessionPool pool, Criteria criteria, QueryOptions options, Executor executor) {
+        if (criteria == null) {
+            throw new IllegalArgumentException("criteria");
+        }
+        if (options == null) {
+            throw new IllegalArgumentException("options");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor");
+        }
+        this.pool = pool;
+        this.criteria = criteria;
+        this.options = options;
+        this.executor = executor;
+    }
+
+    public void subscribe(QuerySubscriber<? super Row> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        Subscription subscription = new Subscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private class Subscription implements QuerySubscription, Runnable {
+
+        private final QuerySubscriber<? super Row> subscriber;
+
+        private final AtomicLong demand = new AtomicLong();
+
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        // invalid request or rejected execution, signalled by the drain task
+        private volatile Throwable error;
+
+        // accessed only by the drain task, serialized by wip
+        private Session session;
+
+        private Cursor cursor;
+
+        private boolean terminated;
+
+        Subscription(QuerySubscriber<? super Row> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("[n] must be greater or equal than: [1]");
+            } else {
+                long current;
+                long next;
+                do {
+                    current = demand.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!demand.compareAndSet(current, next));
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled.compareAndSet(false, true)) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // the calling thread owns the drain, it terminates the subscription
+                    error = e;
+                    run();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            boolean more;
+            while (true) {
+                more = drain();
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+            if (more) {
+                // let the other subscriptions use the executor
+                schedule();
+            }
+        }
+
+        /**
+         * @return <code>true</code> if the task stopped with a pending demand
+         */
+        private boolean drain() {
+            if (terminated) {
+                return false;
+            }
+            if (cancelled.get()) {
+                terminated = true;
+                release();
+                return false;
+            }
+            if (error != null) {
+                terminated = true;
+                release();
+                subscriber.onError(error);
+                return false;
+            }
+            int emitted = 0;
+            try {
+                while (demand.get() > 0 && emitted < MAX_ROWS_PER_TASK && !cancelled.get()) {
+                    if (cursor == null) {
+                        if (session == null) {
+                            session = pool.borrow(BORROW_TIMEOUT_MILLIS, MILLISECONDS);
+                            if (session == null) {
+                                // all sessions are busy, retry on a new task
+                                return !cancelled.get();
+                            }
+                        }
+                        cursor = session.query(criteria, options);
+                        if (cursor == null) {
+                            throw new TsdbException("invalid criteria: " + criteria);
+                        }
+                    }
+                    if (!cursor.hasNext()) {
+                        terminated = true;
+                        release();
+                        subscriber.onComplete();
+                        return false;
+                    }
+                    String series = cursor.next();
+                    if (series == null) {
+                        continue;
+                    }
+                    Row row = new Row(cursor.getTimestamp(), series, cursor.getValues());
+                    demand.decrementAndGet();
+                    emitted += 1;
+                    try {
+                        subscriber.onNext(row);
+                    } catch (Throwable t) {
+                        // Reactive Streams rule 2.13, the subscription is cancelled and onError is not called
+                        cancelled.set(true);
+                        terminated = true;
+                        release();
+                        Logger.DEFAULT_LOGGER.error("onNext failed, subscription is cancelled: " + t.getMessage());
+                        return false;
+                    }
+                }
+                return emitted == MAX_ROWS_PER_TASK && demand.get() > 0 && !cancelled.get();
+            } catch (Throwable t) {
+                terminated = true;
+                release();
+                subscriber.onError(t);
+                return false;
+            }
+        }
+
+        private void release() {
+            try {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            } finally {
+                cursor = null;
+                if (session != null) {
+                    session.close();
+                    session = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPublisher [criteria=" + criteria + "]";
+    }
+}
@@ -0,0 +1,52 @@
+package io.webfolder.tsdb4j;
+
+import java.util.List;
+
+/**
+ * Materialized rows of a query run by {@link QueryExecutor}.
+ */
+public final class QueryResult {
+
+    private final Criteria criteria;
+
+    private final List<Row> rows;
+
+    private final long queueNanos;
+
+    private final long executionNanos;
+
+    QueryResult(Criteria criteria, List<Row> rows, long queueNanos, long executionNanos) {
+        this.criteria = criteria;
+        this.rows = rows;
+        this.queueNanos = queueNanos;
+        this.executionNanos = executionNanos;
+    }
+
+    public Criteria getCriteria() {
+        return criteria;
+    }
+
+    public List<Row> getRows() {
+        return rows;
+    }
+
+    /**
+     * Time the query waited for a free executor thread and session, in nanoseconds.
+     */
+    public long getQueueNanos() {
+        return queueNanos;
+    }
+
+    /**
+     * Time spent to run the query and read all rows, in nanoseconds.
+     */
+    public long getExecutionNanos() {
+        return executionNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryResult [criteria=" + criteria + ", rows=" + rows.size() + ", queueNanos=" + queueNanos
+                + ", executionNanos=" + executionNanos + "]";
+    }
+}
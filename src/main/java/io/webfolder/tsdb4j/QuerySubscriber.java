@@ -0,0 +1,17 @@
+package io.webfolder.tsdb4j;
+
+/**
+ * Receiver of the rows of a {@link QueryPublisher}.
+ *
+ * Same contract as <code>org.reactivestreams.Subscriber</code> and <code>java.util.concurrent.Flow.Subscriber</code>.
+ */
+public interface QuerySubscriber<T> {
+
+    void onSubscribe(QuerySubscription subscription);
+
+    void onNext(T item);
+
+    void onError(Throwable throwable);
+
+    void onComplete();
+}
@@ -0,0 +1,19 @@
+package io.webfolder.tsdb4j;
+
+/**
+ * Demand signal of a {@link QuerySubscriber}.
+ *
+ * Same contract as <code>org.reactivestreams.Subscription</code> and <code>java.util.concurrent.Flow.Subscription</code>.
+ */
+public interface QuerySubscription {
+
+    /**
+     * Requests <code>n</code> more rows, rows are read from the cursor only on demand.
+     */
+    void request(long n);
+
+    /**
+     * Stops the query, the cursor is closed and the session is returned to the pool.
+     */
+    void cancel();
+}
@@ -0,0 +1,115 @@
+package io.webfolder.tsdb4j;
+
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Splits the <code>[from, to)</code> range of a select query into sub-ranges.
+ *
+ * Each sub-range is queried on its own pooled session when it is first traversed.
+ * Sub-ranges are disjoint and split in ascending order, so concatenating them in encounter
+ * order keeps the order of {@link OrderBy#time}.
+ */
+class RangeSpliterator implements Spliterator<Sample>, AutoCloseable {
+
+    private final SessionPool pool;
+
+    private final SelectCriteria criteria;
+
+    private final Set<RangeSpliterator> open;
+
+    private final boolean ordered;
+
+    private long from;
+
+    private final long to;
+
+    private int splits;
+
+    private Session session;
+
+    private SimpleCursor cursor;
+
+    private boolean done;
+
+    RangeSpliterator(SessionPool pool, SelectCriteria criteria, long from, long to, int splits,
+                     Set<RangeSpliterator> open) {
+        this.pool = pool;
+        this.criteria = criteria;
+        this.from = from;
+        this.to = to;
+        this.splits = splits;
+        this.open = open;
+        this.ordered = criteria.getOrderBy() == OrderBy.time;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Sample> action) {
+        if (done) {
+            return false;
+        }
+        if (cursor == null) {
+            open.add(this);
+            session = pool.borrow();
+            cursor = session.query(criteria.withRange(from, to));
+        }
+        if (cursor == null || !cursor.nextRow()) {
+            close();
+            return false;
+        }
+        action.accept(new Sample(cursor.getTimestamp(), cursor.getSeries(), cursor.getValue()));
+        return true;
+    }
+
+    @Override
+    public Spliterator<Sample> trySplit() {
+        if (cursor != null || done || splits < 2 || to - from < 2) {
+            return null;
+        }
+        long middle = from + (to - from) / 2;
+        int prefixSplits = splits / 2;
+        RangeSpliterator prefix = new RangeSpliterator(pool, criteria, from, middle, prefixSplits, open);
+        from = middle;
+        splits -= prefixSplits;
+        return prefix;
+    }
+
+    /**
+     * The number of rows of a sub-range is unknown until it is queried.
+     */
+    @Override
+    public long estimateSize() {
+        return done ? 0 : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL | IMMUTABLE | (ordered ? ORDERED : 0);
+    }
+
+    /**
+     * Closes the cursor and returns the session to the pool.
+     */
+    @Override
+    public void close() {
+        done = true;
+        try {
+            if (cursor != null) {
+                cursor.close();
+            }
+        } finally {
+            cursor = null;
+            if (session != null) {
+                session.close();
+                session = null;
+            }
+            open.remove(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RangeSpliterator [from=" + from + ", to=" + to + ", splits=" + splits + "]";
+    }
+}
@@ -0,0 +1,259 @@
+package io.webfolder.tsdb4j;
+
+import static io.webfolder.tsdb4j.Constant.MAX_SERIES_LENGTH;
+import static java.util.Arrays.copyOf;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Holds the samples of each series for a time window and writes them in timestamp order.
+ *
+ * Akumuli rejects samples older than the head of the series ({@link Status#AKU_ELATE_WRITE}).
+ * The buffer keeps the samples of every series in a min-heap and writes a sample once the newest
+ * timestamp of all series passes the sample by the window, so samples of idle series are written too.
+ *
+ * Samples are written in timestamp order, a sample older than the last written sample is written
+ * directly. If the database rejects it, it is late, it is counted and passed to the
+ * {@link LateSampleHandler}. If the number of buffered samples exceeds the memory cap the oldest
+ * samples are written.
+ *
+ * This class is not thread-safe, same as {@link Session}.
+ */
+public class ReorderBuffer implements AutoCloseable {
+
+    private final Session session;
+
+    private final long window;
+
+    private final int maxSamples;
+
+    private final LateSampleHandler lateSampleHandler;
+
+    private final Map<String, SeriesBuffer> buffers = new HashMap<>();
+
+    // non-empty buffers ordered by their oldest sample
+    private final TreeSet<SeriesBuffer> heads = new TreeSet<>(Comparator.<SeriesBuffer>comparingLong(b -> b.timestamps[0])
+                                                                        .thenComparingLong(b -> b.id));
+
+    private long maxTimestamp = Long.MIN_VALUE;
+
+    // timestamp of the last written sample, samples are written in timestamp order
+    private long released = Long.MIN_VALUE;
+
+    private long nextId;
+
+    private int size;
+
+    private long lateCount;
+
+    private static class SeriesBuffer {
+
+        final SeriesHandle handle;
+
+        final long id;
+
+        long[] timestamps = new long[16];
+
+        double[] values = new double[16];
+
+        int size;
+
+        SeriesBuffer(SeriesHandle handle, long id) {
+            this.handle = handle;
+            this.id = id;
+        }
+
+        void push(long timestamp, double value) {
+            if (size == timestamps.length) {
+                timestamps = copyOf(timestamps, size * 2);
+                values = copyOf(values, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (timestamps[parent] <= timestamp) {
+                    break;
+                }
+                timestamps[i] = timestamps[parent];
+                values[i] = values[parent];
+                i = parent;
+            }
+            timestamps[i] = timestamp;
+            values[i] = value;
+        }
+
+        void pop() {
+            size--;
+            long timestamp = timestamps[size];
+            double value = values[size];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                int right = child + 1;
+                if (right < size && timestamps[right] < timestamps[child]) {
+                    child = right;
+                }
+                if (timestamp <= timestamps[child]) {
+                    break;
+                }
+                timestamps[i] = timestamps[child];
+                values[i] = values[child];
+                i = child;
+            }
+            timestamps[i] = timestamp;
+            values[i] = value;
+        }
+    }
+
+    public ReorderBuffer(Session session, Duration window, int maxSamples) {
+        this(session, window, maxSamples, null);
+    }
+
+    /**
+     * @param session session used to write the samples
+     * @param window time to hold the samples of a series
+     * @param maxSamples maximum number of buffered samples of all series
+     * @param lateSampleHandler optional handler of the samples which arrive later than the window
+     */
+    public ReorderBuffer(Session session, Duration window, int maxSamples, LateSampleHandler lateSampleHandler) {
+        if (session == null) {
+            throw new IllegalArgumentException("session");
+        }
+        if (window == null || window.isNegative()) {
+            throw new IllegalArgumentException("window");
+        }
+        if (maxSamples < 1) {
+            throw new IllegalArgumentException("[maxSamples] must be greater or equal than: [1]");
+        }
+        this.session = session;
+        this.window = window.toNanos();
+        this.maxSamples = maxSamples;
+        this.lateSampleHandler = lateSampleHandler;
+    }
+
+    public void add(long timestamp, String series, double value) {
+        if (timestamp < 0) {
+            throw new IllegalArgumentException("[timestamp] parameter is required");
+        }
+        if (series == null) {
+            throw new IllegalArgumentException("series");
+        }
+        if (series.length() > MAX_SERIES_LENGTH) {
+            throw new IllegalArgumentException("series length must less than " + MAX_SERIES_LENGTH);
+        }
+        if (timestamp < released) {
+            write(timestamp, series, value);
+            return;
+        }
+        SeriesBuffer buffer = buffers.get(series);
+        if (buffer == null) {
+            // a malformed series fails here instead of a later add or flush which releases it
+            buffer = new SeriesBuffer(session.resolve(series), nextId++);
+            buffers.put(series, buffer);
+        }
+        if (buffer.size == 0) {
+            buffer.push(timestamp, value);
+            heads.add(buffer);
+        } else if (timestamp < buffer.timestamps[0]) {
+            heads.remove(buffer);
+            buffer.push(timestamp, value);
+            heads.add(buffer);
+        } else {
+            buffer.push(timestamp, value);
+        }
+        size += 1;
+        if (timestamp > maxTimestamp) {
+            maxTimestamp = timestamp;
+        }
+        long watermark = maxTimestamp - window;
+        while (!heads.isEmpty() && heads.first().timestamps[0] <= watermark) {
+            releaseOldest();
+        }
+        while (size > maxSamples) {
+            releaseOldest();
+        }
+    }
+
+    public void add(Instant timestamp, String series, double value) {
+        add(TimeUtils.toEpoch(timestamp), series, value);
+    }
+
+    /**
+     * Writes all buffered samples.
+     */
+    public void flush() {
+        while (!heads.isEmpty()) {
+            releaseOldest();
+        }
+    }
+
+    /**
+     * Number of buffered samples.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of samples rejected by the database as late writes.
+     */
+    public long getLateCount() {
+        return lateCount;
+    }
+
+    /**
+     * Writes all buffered samples, the session is not closed.
+     */
+    @Override
+    public void close() {
+        flush();
+    }
+
+    /**
+     * Writes the oldest buffered sample, empty series buffers are removed.
+     */
+    private void releaseOldest() {
+        SeriesBuffer buffer = heads.pollFirst();
+        long timestamp = buffer.timestamps[0];
+        double value = buffer.values[0];
+        buffer.pop();
+        size -= 1;
+        if (buffer.size > 0) {
+            heads.add(buffer);
+        } else {
+            buffers.remove(buffer.handle.getSeries());
+        }
+        released = timestamp;
+        try {
+            session.add(timestamp, buffer.handle, value);
+        } catch (LateWriteException e) {
+            late(timestamp, buffer.handle.getSeries(), value);
+        }
+    }
+
+    private void write(long timestamp, String series, double value) {
+        try {
+            session.add(timestamp, series, value);
+        } catch (LateWriteException e) {
+            late(timestamp, series, value);
+        }
+    }
+
+    private void late(long timestamp, String series, double value) {
+        lateCount += 1;
+        if (lateSampleHandler != null) {
+            lateSampleHandler.onLateSample(timestamp, series, value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ReorderBuffer [window=" + window + ", maxSamples=" + maxSamples + ", size=" + size + "]";
+    }
+}
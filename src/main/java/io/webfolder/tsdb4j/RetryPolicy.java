@@ -0,0 +1,120 @@
+package io.webfolder.tsdb4j;
+
+import java.time.Duration;
+
+/**
+ * Retry strategy of the writes rejected with {@link Status#AKU_EBUSY}.
+ *
+ * A busy write is first retried in a spin loop, then after yielding the thread
+ * and then after parking the thread with an exponential backoff.
+ * The write fails with {@link Status#AKU_ETIMEOUT} if the storage is busy longer than {@link Builder#maxWait(Duration)}.
+ */
+public class RetryPolicy {
+
+    public static final RetryPolicy DEFAULT = builder().build();
+
+    private int spins = 64;
+
+    private int yields = 64;
+
+    private Duration minPark = Duration.ofNanos(1000);
+
+    private Duration maxPark = Duration.ofMillis(1);
+
+    private Duration maxWait = Duration.ZERO;
+
+    private RetryPolicy() {
+        // no op
+    }
+
+    public static class Builder {
+
+        private RetryPolicy policy = new RetryPolicy();
+
+        private Builder() {
+            // no op
+        }
+
+        /**
+         * Number of retries in a busy spin loop.
+         */
+        public Builder spins(int spins) {
+            if (spins < 0) {
+                throw new IllegalArgumentException("[spins] must be greater or equal than: [0]");
+            }
+            policy.spins = spins;
+            return this;
+        }
+
+        /**
+         * Number of retries after {@link Thread#yield()}.
+         */
+        public Builder yields(int yields) {
+            if (yields < 0) {
+                throw new IllegalArgumentException("[yields] must be greater or equal than: [0]");
+            }
+            policy.yields = yields;
+            return this;
+        }
+
+        /**
+         * Park time of the first parked retry, doubled on each retry up to <code>max</code>.
+         */
+        public Builder park(Duration min, Duration max) {
+            if (min == null || min.isNegative() || min.isZero()) {
+                throw new IllegalArgumentException("[min] must be positive");
+            }
+            if (max == null || max.compareTo(min) < 0) {
+                throw new IllegalArgumentException("[max] must be greater or equal than [min]");
+            }
+            policy.minPark = min;
+            policy.maxPark = max;
+            return this;
+        }
+
+        /**
+         * Maximum time to wait for a busy storage, {@link Duration#ZERO} waits until the storage is available.
+         */
+        public Builder maxWait(Duration maxWait) {
+            if (maxWait == null || maxWait.isNegative()) {
+                throw new IllegalArgumentException("maxWait");
+            }
+            policy.maxWait = maxWait;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return policy;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getSpins() {
+        return spins;
+    }
+
+    public int getYields() {
+        return yields;
+    }
+
+    public Duration getMinPark() {
+        return minPark;
+    }
+
+    public Duration getMaxPark() {
+        return maxPark;
+    }
+
+    public Duration getMaxWait() {
+        return maxWait;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy [spins=" + spins + ", yields=" + yields + ", minPark=" + minPark + ", maxPark=" + maxPark
+                + ", maxWait=" + maxWait + "]";
+    }
+}
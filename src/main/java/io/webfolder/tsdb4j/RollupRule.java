@@ -0,0 +1,167 @@
+package io.webfolder.tsdb4j;
+
+import static io.webfolder.tsdb4j.AggregateFunction.count;
+import static io.webfolder.tsdb4j.AggregateFunction.mean;
+import static io.webfolder.tsdb4j.AggregateFunction.sum;
+import static java.util.Collections.unmodifiableSet;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Continuous rollup of the metrics matching a pattern.
+ *
+ * Samples are aggregated into bins of <code>step</code> when they are written, closed bins are
+ * stored as rollup series named <code>metric:step:function tags</code>
+ * (e.g. <code>cpu.usage:1h:max host=a</code>). The pattern is a metric name or a prefix
+ * ending with <code>*</code>.
+ *
+ * @see Database#addRollup(RollupRule)
+ */
+public class RollupRule {
+
+    private String metric;
+
+    private long step;
+
+    private EnumSet<AggregateFunction> functions;
+
+    private EnumSet<AggregateFunction> stored;
+
+    private String stepName;
+
+    private RollupRule() {
+        // no op
+    }
+
+    public static class Builder {
+
+        private RollupRule rule = new RollupRule();
+
+        private Builder() {
+            // no op
+        }
+
+        public Builder metric(String metric) {
+            if (metric == null || metric.trim().isEmpty()) {
+                throw new IllegalArgumentException("[metric] parameter is required");
+            }
+            if (metric.indexOf(' ') >= 0 || metric.indexOf(':') >= 0) {
+                throw new IllegalArgumentException("invalid [metric] parameter: " + metric);
+            }
+            rule.metric = metric;
+            return this;
+        }
+
+        public Builder step(Duration step) {
+            if (step == null || step.isNegative() || step.isZero()) {
+                throw new IllegalArgumentException("[step] must be greater than: [0]");
+            }
+            rule.step = step.toNanos();
+            return this;
+        }
+
+        /**
+         * Functions of the rollup, <code>min_timestamp</code> and <code>max_timestamp</code> are not supported.
+         */
+        public Builder functions(EnumSet<AggregateFunction> functions) {
+            if (functions == null || functions.isEmpty()) {
+                throw new IllegalArgumentException("[functions] parameter is required");
+            }
+            if (functions.contains(AggregateFunction.min_timestamp) || functions.contains(AggregateFunction.max_timestamp)) {
+                throw new IllegalArgumentException("[min_timestamp] and [max_timestamp] are not supported by rollups");
+            }
+            rule.functions = EnumSet.copyOf(functions);
+            return this;
+        }
+
+        public RollupRule build() {
+            if (rule.metric == null) {
+                throw new IllegalStateException("[metric] parameter is required to make a rollup");
+            }
+            if (rule.step <= 0) {
+                throw new IllegalStateException("[step] parameter is required to make a rollup");
+            }
+            if (rule.functions == null) {
+                throw new IllegalStateException("[functions] parameter is required to make a rollup");
+            }
+            // mean is computed from the sum and the count
+            rule.stored = EnumSet.copyOf(rule.functions);
+            if (rule.stored.remove(mean)) {
+                rule.stored.add(count);
+                rule.stored.add(sum);
+            }
+            rule.stepName = stepName(rule.step);
+            return rule;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public boolean matches(String metric) {
+        if (metric.indexOf(':') >= 0) {
+            // rollup and aggregate series
+            return false;
+        }
+        if (this.metric.endsWith("*")) {
+            return metric.startsWith(this.metric.substring(0, this.metric.length() - 1));
+        }
+        return this.metric.equals(metric);
+    }
+
+    /**
+     * Name of the rollup series of a metric, e.g. <code>cpu.usage:1h:max</code>.
+     */
+    public String getRollupMetric(String metric, AggregateFunction function) {
+        return metric + ':' + stepName + ':' + function.name();
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    public Duration getStep() {
+        return Duration.ofNanos(step);
+    }
+
+    long getStepNanos() {
+        return step;
+    }
+
+    public Set<AggregateFunction> getFunctions() {
+        return unmodifiableSet(functions);
+    }
+
+    /**
+     * Functions stored as rollup series.
+     */
+    Set<AggregateFunction> getStoredFunctions() {
+        return stored;
+    }
+
+    /**
+     * @return <code>true</code> if the function can be computed from the rollup series
+     */
+    boolean supports(AggregateFunction function) {
+        return function == mean ? stored.contains(count) && stored.contains(sum) : stored.contains(function);
+    }
+
+    private static String stepName(long step) {
+        long[] units = { 86_400_000_000_000L, 3_600_000_000_000L, 60_000_000_000L, 1_000_000_000L, 1_000_000L, 1_000L };
+        String[] names = { "d", "h", "m", "s", "ms", "us" };
+        for (int i = 0; i < units.length; i++) {
+            if (step % units[i] == 0) {
+                return (step / units[i]) + names[i];
+            }
+        }
+        return step + "ns";
+    }
+
+    @Override
+    public String toString() {
+        return "RollupRule [metric=" + metric + ", step=" + stepName + ", functions=" + functions + "]";
+    }
+}
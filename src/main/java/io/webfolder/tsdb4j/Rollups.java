@@ -0,0 +1,394 @@
+package io.webfolder.tsdb4j;
+
+import static io.webfolder.tsdb4j.AggregateFunction.count;
+import static io.webfolder.tsdb4j.AggregateFunction.first;
+import static io.webfolder.tsdb4j.AggregateFunction.last;
+import static io.webfolder.tsdb4j.AggregateFunction.max;
+import static io.webfolder.tsdb4j.AggregateFunction.mean;
+import static io.webfolder.tsdb4j.AggregateFunction.min;
+import static io.webfolder.tsdb4j.AggregateFunction.sum;
+import static java.lang.Math.floorDiv;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maintains the rollup series of a database from its write path and routes group-aggregate
+ * queries to them.
+ *
+ * Each series has one open bin per rule, a write to a later bin stores the open bin as rollup
+ * samples. Writes to a stored bin are late and are not rolled up.
+ *
+ * The first bin of a series may hold samples written before the rule was declared, or samples
+ * stored before the database was reopened, so it is never stored. Each rule records per metric
+ * the start of its coverage, the bin after the first bin of every series and after every late write.
+ * Queries read the rollup series only from the coverage start, the rest is read from the raw series.
+ * The coverage is not persisted, it starts again when the rule is declared again.
+ */
+class Rollups implements WriteListener {
+
+    private static final int FUNCTIONS = AggregateFunction.values().length;
+
+    private final Database database;
+
+    private final List<RollupRule> rules = new CopyOnWriteArrayList<>();
+
+    private final Map<RollupRule, RuleState> states = new ConcurrentHashMap<>();
+
+    private final AtomicLong lateWrites = new AtomicLong();
+
+    // guarded by this
+    private Session writer;
+
+    private static class Bin {
+
+        final String metric;
+
+        final String tags;
+
+        long start;
+
+        boolean open;
+
+        // the first bin of the series, it is not stored
+        boolean partial;
+
+        // oldest start of the closed bins which are being stored, and their number
+        long pendingStart = Long.MAX_VALUE;
+
+        int pendingWrites;
+
+        double count;
+
+        double sum;
+
+        double min;
+
+        double max;
+
+        double first;
+
+        long firstTimestamp;
+
+        double last;
+
+        long lastTimestamp;
+
+        Bin(String metric, String tags) {
+            this.metric = metric;
+            this.tags = tags;
+        }
+
+        void open(long start, long timestamp, double value) {
+            this.start = start;
+            this.open = true;
+            count = 1;
+            sum = min = max = first = last = value;
+            firstTimestamp = lastTimestamp = timestamp;
+        }
+
+        void add(long timestamp, double value) {
+            count += 1;
+            sum += value;
+            if (value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+            }
+            if (timestamp < firstTimestamp) {
+                first = value;
+                firstTimestamp = timestamp;
+            }
+            if (timestamp >= lastTimestamp) {
+                last = value;
+                lastTimestamp = timestamp;
+            }
+        }
+
+        double[] close() {
+            open = false;
+            pendingStart = Math.min(pendingStart, start);
+            pendingWrites += 1;
+            double[] values = new double[FUNCTIONS];
+            values[AggregateFunction.count.ordinal()] = this.count;
+            values[AggregateFunction.sum.ordinal()] = this.sum;
+            values[AggregateFunction.min.ordinal()] = this.min;
+            values[AggregateFunction.max.ordinal()] = this.max;
+            values[AggregateFunction.first.ordinal()] = this.first;
+            values[AggregateFunction.last.ordinal()] = this.last;
+            return values;
+        }
+
+        synchronized void stored() {
+            pendingWrites -= 1;
+            if (pendingWrites == 0) {
+                pendingStart = Long.MAX_VALUE;
+            }
+        }
+    }
+
+    private static class RuleState {
+
+        final ConcurrentHashMap<String, Bin> bins = new ConcurrentHashMap<>();
+
+        // start of the first complete bin of each metric
+        final ConcurrentHashMap<String, Long> coverage = new ConcurrentHashMap<>();
+
+        void cover(String metric, long start) {
+            coverage.merge(metric, start, Math::max);
+        }
+    }
+
+    /**
+     * Rollup rule of each metric of a routed query and the <code>[start, bound)</code> range read
+     * from the rollup series.
+     */
+    static class Route {
+
+        final Map<String, RollupRule> rules;
+
+        final long start;
+
+        final long bound;
+
+        Route(Map<String, RollupRule> rules, long start, long bound) {
+            this.rules = rules;
+            this.start = start;
+            this.bound = bound;
+        }
+    }
+
+    Rollups(Database database) {
+        this.database = database;
+    }
+
+    void add(RollupRule rule) {
+        states.put(rule, new RuleState());
+        rules.add(rule);
+    }
+
+    boolean remove(RollupRule rule) {
+        boolean removed = rules.remove(rule);
+        states.remove(rule);
+        return removed;
+    }
+
+    List<RollupRule> getRules() {
+        return rules;
+    }
+
+    boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    long getLateWrites() {
+        return lateWrites.get();
+    }
+
+    @Override
+    public void onWrite(long timestamp, String series, double value) {
+        int end = series.indexOf(' ');
+        String metric = end < 0 ? series : series.substring(0, end);
+        for (RollupRule rule : rules) {
+            if (!rule.matches(metric)) {
+                continue;
+            }
+            RuleState state = states.get(rule);
+            if (state == null) {
+                continue;
+            }
+            Bin bin = state.bins.computeIfAbsent(series, key -> new Bin(metric, end < 0 ? "" : series.substring(end)));
+            long step = rule.getStepNanos();
+            long start = floorDiv(timestamp, step) * step;
+            double[] closed = null;
+            long closedStart = 0;
+            synchronized (bin) {
+                if (bin.open && start == bin.start) {
+                    bin.add(timestamp, value);
+                } else if (bin.count == 0) {
+                    bin.open(start, timestamp, value);
+                    bin.partial = true;
+                    state.cover(metric, start + step);
+                } else if (start > bin.start) {
+                    if (bin.open && !bin.partial) {
+                        closedStart = bin.start;
+                        closed = bin.close();
+                    }
+                    bin.open(start, timestamp, value);
+                    bin.partial = false;
+                } else {
+                    // the stored bin misses the sample, the range is read from the raw series
+                    lateWrites.incrementAndGet();
+                    state.cover(metric, start + step);
+                }
+            }
+            if (closed != null) {
+                write(rule, bin, closedStart, closed);
+            }
+        }
+    }
+
+    /**
+     * Stores the open bins, later writes to them are late writes.
+     */
+    void flush() {
+        for (RollupRule rule : rules) {
+            RuleState state = states.get(rule);
+            if (state == null) {
+                continue;
+            }
+            for (Bin bin : state.bins.values()) {
+                double[] closed = null;
+                long closedStart = 0;
+                synchronized (bin) {
+                    if (bin.open && bin.partial) {
+                        bin.open = false;
+                    } else if (bin.open) {
+                        closedStart = bin.start;
+                        closed = bin.close();
+                    }
+                }
+                if (closed != null) {
+                    write(rule, bin, closedStart, closed);
+                }
+            }
+        }
+    }
+
+    void close() {
+        flush();
+        synchronized (this) {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        }
+    }
+
+    /**
+     * Route of a group-aggregate query, <code>null</code> if the query must read the raw series.
+     *
+     * Each metric is routed to the rollup with the largest step which divides the step of the query.
+     * The range is read from the rollup series from the coverage start up to the oldest bin which
+     * is open or not yet stored, the rest is read from the raw series.
+     */
+    Route route(GroupAggregateCriteria criteria) {
+        if (rules.isEmpty()) {
+            return null;
+        }
+        long from = criteria.getFrom();
+        long to = criteria.getTo();
+        if (criteria.getLimit() >= 0 || criteria.getOffset() >= 0 || criteria.getFilter1() != null
+                || (criteria.getGroupByTag() != null && !criteria.getGroupByTag().isEmpty())
+                || (criteria.getPivotByTag() != null && !criteria.getPivotByTag().isEmpty())
+                || criteria.getStep() == null || criteria.getStep().toNanos() <= 0
+                || criteria.getMetrics() == null || from <= 0 || to <= from) {
+            return null;
+        }
+        long step = criteria.getStep().toNanos();
+        Map<String, RollupRule> routes = new HashMap<>();
+        long start = from;
+        long bound = to;
+        for (String metric : criteria.getMetrics()) {
+            RollupRule selected = null;
+            for (RollupRule rule : rules) {
+                long ruleStep = rule.getStepNanos();
+                if (!rule.matches(metric) || step % ruleStep != 0 || from % ruleStep != 0) {
+                    continue;
+                }
+                boolean supported = true;
+                for (AggregateFunction next : criteria.getFunctions()) {
+                    supported &= rule.supports(next);
+                }
+                if (supported && (selected == null || ruleStep > selected.getStepNanos())) {
+                    selected = rule;
+                }
+            }
+            if (selected == null) {
+                return null;
+            }
+            RuleState state = states.get(selected);
+            Long coverage = state == null ? null : state.coverage.get(metric);
+            if (coverage == null) {
+                // no sample of the metric is written since the rule is declared
+                return null;
+            }
+            routes.put(metric, selected);
+            start = max(start, coverage);
+            bound = min(bound, watermark(state, metric));
+        }
+        // the rollup range is aligned to the bins of the query
+        start = start <= from ? from : from - floorDiv(from - start, step) * step;
+        bound = bound <= from ? from : from + floorDiv(bound - from, step) * step;
+        return bound > start ? new Route(routes, start, bound) : null;
+    }
+
+    /**
+     * Rollup functions read for the requested function.
+     */
+    static EnumSet<AggregateFunction> stored(AggregateFunction function) {
+        return function == mean ? EnumSet.of(count, sum) : EnumSet.of(function);
+    }
+
+    /**
+     * Group-aggregate function which merges the rollup samples of a function.
+     */
+    static AggregateFunction merge(AggregateFunction stored) {
+        return stored == count ? sum : stored;
+    }
+
+    /**
+     * Start of the oldest open or not yet stored bin of the metric, the rollup series are complete
+     * before it.
+     */
+    private long watermark(RuleState state, String metric) {
+        long watermark = Long.MAX_VALUE;
+        for (Bin bin : state.bins.values()) {
+            if (bin.metric.equals(metric)) {
+                synchronized (bin) {
+                    if (bin.open && bin.start < watermark) {
+                        watermark = bin.start;
+                    }
+                    if (bin.pendingStart < watermark) {
+                        watermark = bin.pendingStart;
+                    }
+                }
+            }
+        }
+        return watermark;
+    }
+
+    /**
+     * Stores a closed bin, the bin holds back the watermark until it returns.
+     */
+    private synchronized void write(RollupRule rule, Bin bin, long start, double[] values) {
+        try {
+            if (writer == null) {
+                writer = database.createRollupSession();
+            }
+            for (AggregateFunction next : rule.getStoredFunctions()) {
+                try {
+                    writer.add(start, rule.getRollupMetric(bin.metric, next) + bin.tags, values[next.ordinal()]);
+                } catch (LateWriteException e) {
+                    lateWrites.incrementAndGet();
+                    Logger.DEFAULT_LOGGER.error("rollup sample is not stored: " + e);
+                }
+            }
+        } finally {
+            bin.stored();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Rollups [rules=" + rules + "]";
+    }
+}
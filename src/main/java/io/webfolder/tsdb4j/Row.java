@@ -0,0 +1,55 @@
+package io.webfolder.tsdb4j;
+
+import static java.lang.Double.NaN;
+
+import java.time.Instant;
+
+/**
+ * Immutable row of a query, published by {@link QueryPublisher}.
+ */
+public final class Row {
+
+    private final long timestamp;
+
+    private final String series;
+
+    private final double[] values;
+
+    public Row(long timestamp, String series, double[] values) {
+        this.timestamp = timestamp;
+        this.series = series;
+        this.values = values;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Instant getTimestampAsInstant() {
+        return TimeUtils.fromEpoch(timestamp);
+    }
+
+    public String getSeries() {
+        return series;
+    }
+
+    public ParsedSeries getParsedSeries() {
+        return series != null ? SeriesParser.parse(series) : null;
+    }
+
+    public double getValue() {
+        return values != null && values.length > 0 ? values[0] : NaN;
+    }
+
+    /**
+     * Values of a compound or aggregate row, the array must not be modified.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return "Row [timestamp=" + timestamp + ", series=" + series + ", value=" + getValue() + "]";
+    }
+}
@@ -0,0 +1,132 @@
+package io.webfolder.tsdb4j;
+
+import static java.lang.Double.NaN;
+
+import java.time.Instant;
+
+/**
+ * Reusable columnar holder for the rows of a query.
+ *
+ * {@link BaseCursor#nextBatch(RowBatch)} fills the batch with a single native call.
+ * Series are stored as dense ids, the name of an id is returned by {@link BaseCursor#getSeries(int)}.
+ * The values of the row <code>i</code> are stored in <code>values[offsets[i]]</code> to
+ * <code>values[offsets[i + 1] - 1]</code>.
+ */
+public class RowBatch {
+
+    private final long[] timestamps;
+
+    private final int[] seriesIds;
+
+    private final double[] values;
+
+    private final int[] offsets;
+
+    private int size;
+
+    public RowBatch(int capacity) {
+        this(capacity, capacity);
+    }
+
+    /**
+     * @param capacity maximum number of rows
+     * @param valueCapacity maximum number of values of all rows, compound and aggregate rows have more than one value
+     */
+    public RowBatch(int capacity, int valueCapacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("[capacity] must be greater or equal than: [1]");
+        }
+        if (valueCapacity < 1) {
+            throw new IllegalArgumentException("[valueCapacity] must be greater or equal than: [1]");
+        }
+        this.timestamps = new long[capacity];
+        this.seriesIds = new int[capacity];
+        this.values = new double[valueCapacity];
+        this.offsets = new int[capacity + 1];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getTimestamp(int row) {
+        checkRow(row);
+        return timestamps[row];
+    }
+
+    public Instant getTimestampAsInstant(int row) {
+        return TimeUtils.fromEpoch(getTimestamp(row));
+    }
+
+    public int getSeriesId(int row) {
+        checkRow(row);
+        return seriesIds[row];
+    }
+
+    public int getValueCount(int row) {
+        checkRow(row);
+        return offsets[row + 1] - offsets[row];
+    }
+
+    public double getValue(int row) {
+        return getValueCount(row) > 0 ? values[offsets[row]] : NaN;
+    }
+
+    public double getValue(int row, int index) {
+        if (index < 0 || index >= getValueCount(row)) {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+        return values[offsets[row] + index];
+    }
+
+    /**
+     * Timestamps of the rows, valid up to {@link #size()}.
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * Series ids of the rows, valid up to {@link #size()}.
+     */
+    public int[] getSeriesIds() {
+        return seriesIds;
+    }
+
+    /**
+     * Values of all rows, valid up to <code>getOffsets()[size()]</code>.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * Start offset of the values of each row, valid up to <code>size() + 1</code>.
+     */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    void setSize(int size) {
+        this.size = size;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row: " + row);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RowBatch [size=" + size + ", capacity=" + timestamps.length + ", valueCapacity=" + values.length + "]";
+    }
+}
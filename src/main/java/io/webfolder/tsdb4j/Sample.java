@@ -0,0 +1,42 @@
+package io.webfolder.tsdb4j;
+
+import java.time.Instant;
+
+/**
+ * Row of a select query.
+ */
+public final class Sample {
+
+    private final long timestamp;
+
+    private final String series;
+
+    private final double value;
+
+    public Sample(long timestamp, String series, double value) {
+        this.timestamp = timestamp;
+        this.series = series;
+        this.value = value;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Instant getTimestampAsInstant() {
+        return TimeUtils.fromEpoch(timestamp);
+    }
+
+    public String getSeries() {
+        return series;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "Sample [timestamp=" + timestamp + ", series=" + series + ", value=" + value + "]";
+    }
+}
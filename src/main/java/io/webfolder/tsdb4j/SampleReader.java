@@ -0,0 +1,188 @@
+package io.webfolder.tsdb4j;
+
+import static java.lang.Double.NaN;
+import static java.nio.ByteOrder.nativeOrder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the raw samples written by {@link BaseCursor#read(ByteBuffer)} in place.
+ *
+ * The reader walks the samples between the position and the limit of the buffer,
+ * nothing is copied or allocated. Call {@link #reset()} after the buffer is refilled.
+ *
+ * <pre>
+ * ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+ * SampleReader reader = new SampleReader(buffer);
+ * while (cursor.read(buffer) &gt; 0) {
+ *     buffer.flip();
+ *     reader.reset();
+ *     while (reader.next()) {
+ *         reader.getParamId(); reader.getTimestamp(); reader.getValue();
+ *     }
+ *     buffer.clear();
+ * }
+ * </pre>
+ */
+public class SampleReader {
+
+    private static final int PARAM_ID_OFFSET;
+
+    private static final int TIMESTAMP_OFFSET;
+
+    private static final int FLOAT_OFFSET;
+
+    private static final int SIZE_OFFSET;
+
+    private static final int SIZE_WIDTH;
+
+    private static final int TYPE_OFFSET;
+
+    private static final int TYPE_WIDTH;
+
+    private static final int DATA_OFFSET;
+
+    private static final int PARAMID_BIT;
+
+    private static final int FLOAT_BIT;
+
+    private static final int TUPLE_BIT;
+
+    private static native int[] _layout();
+
+    static {
+        int[] layout = _layout();
+        PARAM_ID_OFFSET = layout[0];
+        TIMESTAMP_OFFSET = layout[1];
+        FLOAT_OFFSET = layout[2];
+        SIZE_OFFSET = layout[3];
+        SIZE_WIDTH = layout[4];
+        TYPE_OFFSET = layout[5];
+        TYPE_WIDTH = layout[6];
+        DATA_OFFSET = layout[7];
+        PARAMID_BIT = layout[8];
+        FLOAT_BIT = layout[9];
+        TUPLE_BIT = layout[10];
+    }
+
+    private final ByteBuffer buffer;
+
+    private int position;
+
+    private int limit;
+
+    private int sample = -1;
+
+    public SampleReader(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("buffer");
+        }
+        this.buffer = buffer;
+        reset();
+    }
+
+    /**
+     * Starts reading from the current position of the buffer up to its limit.
+     */
+    public void reset() {
+        buffer.order(nativeOrder());
+        position = buffer.position();
+        limit = buffer.limit();
+        sample = -1;
+    }
+
+    /**
+     * Moves to the next sample.
+     *
+     * @return <code>false</code> if there is no more sample in the buffer
+     */
+    public boolean next() {
+        int next = sample < 0 ? position : sample + getSize();
+        if (next + DATA_OFFSET > limit) {
+            sample = limit;
+            return false;
+        }
+        sample = next;
+        if (getSize() < DATA_OFFSET || sample + getSize() > limit) {
+            throw new IllegalStateException("truncated sample at: " + sample);
+        }
+        return true;
+    }
+
+    public long getParamId() {
+        return buffer.getLong(sample + PARAM_ID_OFFSET);
+    }
+
+    public long getTimestamp() {
+        return buffer.getLong(sample + TIMESTAMP_OFFSET);
+    }
+
+    /**
+     * Payload flags of the sample, see {@link #isFloat()} and {@link #isTuple()}.
+     */
+    public int getType() {
+        return read(sample + TYPE_OFFSET, TYPE_WIDTH);
+    }
+
+    /**
+     * Size of the sample in bytes, including the variable sized payload.
+     */
+    public int getSize() {
+        return read(sample + SIZE_OFFSET, SIZE_WIDTH);
+    }
+
+    public boolean hasParamId() {
+        return (getType() & PARAMID_BIT) != 0;
+    }
+
+    public boolean isFloat() {
+        return (getType() & FLOAT_BIT) != 0;
+    }
+
+    public boolean isTuple() {
+        return (getType() & TUPLE_BIT) != 0;
+    }
+
+    public int getValueCount() {
+        if (isFloat()) {
+            return 1;
+        } else if (isTuple()) {
+            return (int) (buffer.getLong(sample + FLOAT_OFFSET) >>> 58);
+        }
+        return 0;
+    }
+
+    public double getValue() {
+        return getValueCount() > 0 ? getValue(0) : NaN;
+    }
+
+    /**
+     * Value of a float sample or an element of a tuple, missing tuple elements are {@link Double#NaN}.
+     */
+    public double getValue(int index) {
+        if (index < 0 || index >= getValueCount()) {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+        if (isFloat()) {
+            return buffer.getDouble(sample + FLOAT_OFFSET);
+        }
+        long bits = buffer.getLong(sample + FLOAT_OFFSET);
+        if ((bits & (1L << index)) == 0) {
+            return NaN;
+        }
+        return buffer.getDouble(sample + DATA_OFFSET + index * 8);
+    }
+
+    private int read(int offset, int width) {
+        switch (width) {
+            case 1: return buffer.get(offset) & 0xff;
+            case 2: return buffer.getShort(offset) & 0xffff;
+            default: return buffer.getInt(offset);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SampleReader [position=" + position + ", limit=" + limit + "]";
+    }
+}
@@ -0,0 +1,151 @@
+package io.webfolder.tsdb4j;
+
+import static java.nio.ByteBuffer.allocateDirect;
+import static java.nio.ByteOrder.nativeOrder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Off-heap ring of fixed-size sample records.
+ *
+ * Any number of producer threads can {@link #offer(long, SeriesHandle, double)} samples,
+ * slots are claimed with a lock-free sequence and filled with plain puts.
+ * A single consumer hands the published records to native code with {@link Session#drain(SampleRing)},
+ * which writes them without a JNI transition or a String per sample.
+ *
+ * Record layout (native byte order):
+ *
+ * <pre>
+ * offset  0: param id  (long)
+ * offset  8: timestamp (long)
+ * offset 16: value     (double)
+ * </pre>
+ */
+public class SampleRing {
+
+    public static final int RECORD_SIZE = 24;
+
+    static final int ID_OFFSET = 0;
+
+    static final int TIMESTAMP_OFFSET = 8;
+
+    static final int VALUE_OFFSET = 16;
+
+    private final ByteBuffer buffer;
+
+    private final int capacity;
+
+    private final int mask;
+
+    // sequence + 1 of the record stored in the slot, set after the record is written
+    private final AtomicLongArray published;
+
+    // next sequence to claim
+    private final AtomicLong head = new AtomicLong();
+
+    // next sequence to drain
+    private volatile long tail;
+
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * @param capacity number of records, must be a power of two
+     */
+    public SampleRing(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("[capacity] must be a power of two");
+        }
+        if (capacity > Integer.MAX_VALUE / RECORD_SIZE) {
+            throw new IllegalArgumentException("[capacity] is too large: [" + capacity + "]");
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.buffer = allocateDirect(capacity * RECORD_SIZE).order(nativeOrder());
+        this.published = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * Appends a sample to the ring.
+     *
+     * @return <code>false</code> if the ring is full
+     */
+    public boolean offer(long timestamp, SeriesHandle handle, double value) {
+        if (timestamp < 0) {
+            throw new IllegalArgumentException("[timestamp] parameter is required");
+        }
+        if (handle == null) {
+            throw new IllegalArgumentException("handle");
+        }
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail >= capacity) {
+                return false;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+        int slot = (int) (sequence & mask);
+        int position = slot * RECORD_SIZE;
+        buffer.putLong(position + ID_OFFSET, handle.getId());
+        buffer.putLong(position + TIMESTAMP_OFFSET, timestamp);
+        buffer.putDouble(position + VALUE_OFFSET, value);
+        published.lazySet(slot, sequence + 1);
+        return true;
+    }
+
+    /**
+     * Number of claimed records which are not drained yet.
+     */
+    public int size() {
+        return (int) (head.get() - tail);
+    }
+
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Number of drained records rejected by the database.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    synchronized int drain(Session session) {
+        long start = tail;
+        long end = start;
+        long limit = head.get();
+        while (end < limit && published.get((int) (end & mask)) == end + 1) {
+            end++;
+        }
+        if (end == start) {
+            return 0;
+        }
+        int count = (int) (end - start);
+        int offset = (int) (start & mask);
+        int first = Math.min(count, capacity - offset);
+        int errors = session.drain(buffer, offset, first);
+        if (count > first) {
+            errors += session.drain(buffer, 0, count - first);
+        }
+        if (errors > 0) {
+            failed.addAndGet(errors);
+        }
+        tail = end;
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "SampleRing [capacity=" + capacity + ", size=" + size() + "]";
+    }
+}
@@ -261,6 +261,25 @@ public class SelectCriteria implements Criteria {
         return new Builder();
     }
 
+    /**
+     * Copy of the criteria with another time range.
+     */
+    SelectCriteria withRange(long from, long to) {
+        SelectCriteria copy = new SelectCriteria();
+        copy.select = select;
+        copy.from = from;
+        copy.to = to;
+        copy.where = where;
+        copy.groupByTag = groupByTag;
+        copy.pivotByTag = pivotByTag;
+        copy.orderBy = orderBy;
+        copy.filter1 = filter1;
+        copy.filter2 = filter2;
+        copy.limit = limit;
+        copy.offset = offset;
+        return copy;
+    }
+
     @Override
     public String toJson() {
         if (criteria != null) {
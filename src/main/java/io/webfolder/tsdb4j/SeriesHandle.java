@@ -0,0 +1,50 @@
+package io.webfolder.tsdb4j;
+
+/**
+ * Series name resolved to its Akumuli param id.
+ *
+ * Handles are created by {@link Session#resolve(String)} and stay valid for every
+ * session of the same database, writing through a handle skips the parsing
+ * and the index lookup of the series name.
+ */
+public final class SeriesHandle {
+
+    private final long id;
+
+    private final String series;
+
+    SeriesHandle(long id, String series) {
+        this.id = id;
+        this.series = series;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getSeries() {
+        return series;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        SeriesHandle other = (SeriesHandle) obj;
+        return id == other.id;
+    }
+
+    @Override
+    public String toString() {
+        return "SeriesHandle [id=" + id + ", series=" + series + "]";
+    }
+}
@@ -0,0 +1,224 @@
+package io.webfolder.tsdb4j;
+
+import static io.webfolder.tsdb4j.Constant.MAX_SERIES_LENGTH;
+import static io.webfolder.tsdb4j.Constant.MAX_TAG_SIZE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.unmodifiableList;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pre-encoded series name.
+ *
+ * The builder sorts the tags by name once and caches the UTF-8 bytes of the canonical
+ * series name, {@link Session#add(long, SeriesKey, double)} passes the bytes to native
+ * code without a String conversion. Keys are interned by metric and tags, building a key
+ * which is still referenced returns the cached instance without building the series name.
+ * The intern table holds the keys weakly, keys which are no longer used are removed.
+ */
+public final class SeriesKey {
+
+    private static final ConcurrentHashMap<Lookup, Ref> interned = new ConcurrentHashMap<>();
+
+    private static final ReferenceQueue<SeriesKey> collected = new ReferenceQueue<>();
+
+    private final String metric;
+
+    private final List<Tag> tags;
+
+    private final String series;
+
+    private final byte[] bytes;
+
+    private SeriesKey(String metric, List<Tag> tags, String series, byte[] bytes) {
+        this.metric = metric;
+        this.tags = tags;
+        this.series = series;
+        this.bytes = bytes;
+    }
+
+    public static class Builder {
+
+        private final String metric;
+
+        private final List<Tag> tags = new ArrayList<>();
+
+        private Builder(String metric) {
+            this.metric = metric;
+        }
+
+        public Builder tag(String name, String value) {
+            checkName(name, "tag name");
+            checkName(value, "tag value");
+            tags.add(new Tag(name, value));
+            return this;
+        }
+
+        public SeriesKey build() {
+            if (tags.isEmpty()) {
+                throw new IllegalStateException("at least one tag is required");
+            }
+            if (tags.size() > MAX_TAG_SIZE) {
+                throw new IllegalStateException("number of tags must less than " + MAX_TAG_SIZE);
+            }
+            Tag[] sorted = tags.toArray(new Tag[tags.size()]);
+            Arrays.sort(sorted);
+            for (int i = 1; i < sorted.length; i++) {
+                if (sorted[i].getName().equals(sorted[i - 1].getName())) {
+                    throw new IllegalStateException("duplicate tag name: [" + sorted[i].getName() + "]");
+                }
+            }
+            expunge();
+            Lookup lookup = new Lookup(metric, sorted);
+            Ref ref = interned.get(lookup);
+            SeriesKey key = ref == null ? null : ref.get();
+            if (key != null) {
+                return key;
+            }
+            StringBuilder builder = new StringBuilder(metric);
+            for (Tag next : sorted) {
+                builder.append(' ').append(next.getName()).append('=').append(next.getValue());
+            }
+            String series = builder.toString();
+            byte[] bytes = series.getBytes(UTF_8);
+            if (bytes.length > MAX_SERIES_LENGTH) {
+                throw new IllegalStateException("series length must less than " + MAX_SERIES_LENGTH + " bytes");
+            }
+            key = new SeriesKey(metric, unmodifiableList(Arrays.asList(sorted)), series, bytes);
+            Ref created = new Ref(key, lookup);
+            while (true) {
+                Ref existing = interned.putIfAbsent(lookup, created);
+                if (existing == null) {
+                    return key;
+                }
+                SeriesKey other = existing.get();
+                if (other != null) {
+                    return other;
+                }
+                // the interned key is collected but its entry is not removed yet
+                if (interned.replace(lookup, existing, created)) {
+                    return key;
+                }
+            }
+        }
+    }
+
+    private static final class Ref extends WeakReference<SeriesKey> {
+
+        private final Lookup lookup;
+
+        Ref(SeriesKey key, Lookup lookup) {
+            super(key, collected);
+            this.lookup = lookup;
+        }
+    }
+
+    /**
+     * Removes the entries of the collected keys.
+     */
+    private static void expunge() {
+        Ref next;
+        while ((next = (Ref) collected.poll()) != null) {
+            interned.remove(next.lookup, next);
+        }
+    }
+
+    /**
+     * Key of the interned series keys, metric and tags sorted by name.
+     */
+    private static final class Lookup {
+
+        private final String metric;
+
+        private final Tag[] tags;
+
+        private final int hash;
+
+        Lookup(String metric, Tag[] tags) {
+            this.metric = metric;
+            this.tags = tags;
+            this.hash = 31 * metric.hashCode() + Arrays.hashCode(tags);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Lookup))
+                return false;
+            Lookup other = (Lookup) obj;
+            return hash == other.hash && metric.equals(other.metric) && Arrays.equals(tags, other.tags);
+        }
+    }
+
+    public static Builder builder(String metric) {
+        checkName(metric, "metric");
+        return new Builder(metric);
+    }
+
+    private static void checkName(String name, String field) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException(field);
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == ' ' || c == '=' || c == '|') {
+                throw new IllegalArgumentException("invalid character in " + field + ": [" + name + "]");
+            }
+        }
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    /**
+     * Tags sorted by name.
+     */
+    public List<Tag> getTags() {
+        return tags;
+    }
+
+    /**
+     * Canonical series name.
+     */
+    public String getSeries() {
+        return series;
+    }
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public int hashCode() {
+        return series.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        SeriesKey other = (SeriesKey) obj;
+        return series.equals(other.series);
+    }
+
+    @Override
+    public String toString() {
+        return "SeriesKey [series=" + series + "]";
+    }
+}
@@ -0,0 +1,75 @@
+package io.webfolder.tsdb4j;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shared cache of the parsed series names.
+ *
+ * Queries return the same series names for many rows and across cursors, a name is parsed
+ * once and the {@link ParsedSeries} is reused. Lookups do not lock, so parallel cursors do not
+ * contend on the cache. The cache is bounded approximately, once it is full an arbitrary eighth
+ * of the names is evicted.
+ */
+public final class SeriesParser {
+
+    private static final int MAX_CACHED = 1 << 16;
+
+    private static final ConcurrentHashMap<String, ParsedSeries> cache = new ConcurrentHashMap<>();
+
+    // one thread at a time evicts
+    private static final AtomicBoolean evicting = new AtomicBoolean();
+
+    private SeriesParser() {
+        // no op
+    }
+
+    public static ParsedSeries parse(String series) {
+        if (series == null) {
+            throw new IllegalArgumentException("series");
+        }
+        ParsedSeries parsed = cache.get(series);
+        if (parsed != null) {
+            return parsed;
+        }
+        // a concurrent parse of the same name keeps the first instance
+        parsed = ParsedSeries.parse(series);
+        ParsedSeries existing = cache.putIfAbsent(series, parsed);
+        if (existing != null) {
+            return existing;
+        }
+        if (cache.size() > MAX_CACHED) {
+            evict();
+        }
+        return parsed;
+    }
+
+    /**
+     * Number of cached series.
+     */
+    public static int size() {
+        return cache.size();
+    }
+
+    public static void clear() {
+        cache.clear();
+    }
+
+    private static void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int count = cache.size() - MAX_CACHED + MAX_CACHED / 8;
+            Iterator<String> iterator = cache.keySet().iterator();
+            while (count > 0 && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                count -= 1;
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+}
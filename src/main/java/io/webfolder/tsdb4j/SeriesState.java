@@ -0,0 +1,45 @@
+package io.webfolder.tsdb4j;
+
+import static java.util.Arrays.copyOf;
+
+/**
+ * State of a {@link Transform} indexed by the dense series id of the cursor, memory grows with
+ * the number of series and not with the number of rows.
+ */
+final class SeriesState {
+
+    private double[][] values = new double[16][];
+
+    private long[] marks = new long[16];
+
+    /**
+     * Values of the series, <code>null</code> for a new series.
+     */
+    double[] get(int seriesId) {
+        return seriesId < values.length ? values[seriesId] : null;
+    }
+
+    double[] create(int seriesId, int length) {
+        ensure(seriesId);
+        double[] state = new double[length];
+        values[seriesId] = state;
+        marks[seriesId] = 0;
+        return state;
+    }
+
+    long getMark(int seriesId) {
+        return marks[seriesId];
+    }
+
+    void setMark(int seriesId, long mark) {
+        marks[seriesId] = mark;
+    }
+
+    private void ensure(int seriesId) {
+        if (seriesId >= values.length) {
+            int length = Math.max(values.length * 2, seriesId + 1);
+            values = copyOf(values, length);
+            marks = copyOf(marks, length);
+        }
+    }
+}
@@ -1,16 +1,32 @@
 package io.webfolder.tsdb4j;
 
 import static io.webfolder.tsdb4j.Constant.MAX_SERIES_LENGTH;
+import static io.webfolder.tsdb4j.SampleRing.ID_OFFSET;
+import static io.webfolder.tsdb4j.SampleRing.RECORD_SIZE;
+import static io.webfolder.tsdb4j.SampleRing.TIMESTAMP_OFFSET;
+import static io.webfolder.tsdb4j.SampleRing.VALUE_OFFSET;
+import static io.webfolder.tsdb4j.Status.AKU_EGENERAL;
+import static io.webfolder.tsdb4j.Status.AKU_SUCCESS;
+import static io.webfolder.tsdb4j.Status.fromCode;
+import static java.nio.ByteOrder.nativeOrder;
 import static java.util.Collections.emptyList;
 
+import java.nio.ByteBuffer;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.grack.nanojson.JsonStringWriter;
 import com.grack.nanojson.JsonWriter;
 
 public class Session implements AutoCloseable {
 
+    // maximum number of cached series names of drained param ids
+    private static final int MAX_SERIES_NAMES = 1 << 16;
+
     private long session;
 
     private native long _open(long db);
@@ -19,37 +35,424 @@ public class Session implements AutoCloseable {
 
     private native long _metadata(long session, String query);
 
-    private native long _query(long session, String query);
+    private native long _query(long session, String query, int bufferSize, boolean prefetch);
+
+    private native long _queryBuffer(long session, ByteBuffer query, int bufferSize, boolean prefetch);
+
+    private native int _add(long session, long timestamp, String id, double value);
+
+    private native int _addBatch(long session,
+                                 long[] timestamps,
+                                 String[] series,
+                                 double[] values,
+                                 int offset,
+                                 int length,
+                                 int[] statuses);
+
+    private native long _resolve(long session, String series);
+
+    private native void _resolveAll(long session, String[] series, long[] ids);
+
+    private native int _addBytes(long session, long timestamp, byte[] series, double value);
+
+    private native int _addId(long session, long timestamp, long id, double value);
+
+    private native int _addCompound(long session, long timestamp, String series, double[] values);
 
-    private native void _add(long session, long timestamp, String id, double value);
+    private native void _retryPolicy(long session,
+                                     int spins,
+                                     int yields,
+                                     long minParkNanos,
+                                     long maxParkNanos,
+                                     long maxWaitNanos);
 
-    Session(long db) {
-        session = _open(db);
+    private native void _retryStats(long session, long[] stats);
+
+    private native int _drain(long session, ByteBuffer buffer, int offset, int count, int[] statuses);
+
+    private native String _seriesName(long session, long id);
+
+    private final WriteListeners listeners;
+
+    private final SessionPool pool;
+
+    private final int poolIndex;
+
+    private Map<Long, String> seriesNames;
+
+    Session(long db, WriteListeners listeners) {
+        this(db, listeners, null, -1);
+    }
+
+    Session(long db, WriteListeners listeners, SessionPool pool, int poolIndex) {
+        this.session = _open(db);
+        this.listeners = listeners;
+        this.pool = pool;
+        this.poolIndex = poolIndex;
     }
 
     public void add(long timestamp, String series, double value) {
         if (timestamp < 0) {
             throw new IllegalArgumentException("[timestamp] parameter is required");
         }
+        checkSeries(series);
+        check(_add(session, timestamp, series, value), series, timestamp);
+        if (!listeners.isEmpty()) {
+            listeners.fire(timestamp, series, value);
+        }
+    }
+
+    public void add(Instant timestamp, String series, double value) {
+        add(TimeUtils.toEpoch(timestamp), series, value);
+    }
+
+    public void add(long timestamp, SeriesHandle handle, double value) {
+        if (timestamp < 0) {
+            throw new IllegalArgumentException("[timestamp] parameter is required");
+        }
+        if (handle == null) {
+            throw new IllegalArgumentException("handle");
+        }
+        check(_addId(session, timestamp, handle.getId(), value), handle.getSeries(), timestamp);
+        if (!listeners.isEmpty()) {
+            listeners.fire(timestamp, handle.getSeries(), value);
+        }
+    }
+
+    public void add(Instant timestamp, SeriesHandle handle, double value) {
+        add(TimeUtils.toEpoch(timestamp), handle, value);
+    }
+
+    public void add(long timestamp, SeriesKey key, double value) {
+        if (timestamp < 0) {
+            throw new IllegalArgumentException("[timestamp] parameter is required");
+        }
+        if (key == null) {
+            throw new IllegalArgumentException("key");
+        }
+        check(_addBytes(session, timestamp, key.getBytes(), value), key.getSeries(), timestamp);
+        if (!listeners.isEmpty()) {
+            listeners.fire(timestamp, key.getSeries(), value);
+        }
+    }
+
+    public void add(Instant timestamp, SeriesKey key, double value) {
+        add(TimeUtils.toEpoch(timestamp), key, value);
+    }
+
+    /**
+     * Resolves the series name to its param id.
+     * 
+     * The series is created in the index if it doesn't exist yet.
+     * 
+     * @throws InvalidSeriesException if the series name is malformed
+     */
+    public SeriesHandle resolve(String series) {
+        checkSeries(series);
+        long id = _resolve(session, series);
+        return new SeriesHandle(id, series);
+    }
+
+    /**
+     * Resolves all series names with a single native call, e.g. to warm-up the index at startup.
+     * 
+     * @return handles in the iteration order of the collection
+     * 
+     * @throws InvalidSeriesException if any of the series name is malformed
+     */
+    public List<SeriesHandle> resolveAll(Collection<String> series) {
+        if (series == null) {
+            throw new IllegalArgumentException("series");
+        }
+        String[] names = series.toArray(new String[series.size()]);
+        for (String next : names) {
+            checkSeries(next);
+        }
+        long[] ids = new long[names.length];
+        _resolveAll(session, names, ids);
+        List<SeriesHandle> handles = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            handles.add(new SeriesHandle(ids[i], names[i]));
+        }
+        return handles;
+    }
+
+    /**
+     * Writes <code>count</code> records of a direct buffer starting from the record <code>offset</code>.
+     * 
+     * The buffer must use the native byte order and the {@link SampleRing} record layout.
+     * 
+     * @return number of rejected records
+     */
+    public int drain(ByteBuffer buffer, int offset, int count) {
+        if (buffer == null || !buffer.isDirect()) {
+            throw new IllegalArgumentException("buffer must be a direct buffer");
+        }
+        if (offset < 0 || count < 0 ||
+                ((long) offset + count) * RECORD_SIZE > buffer.capacity()) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", count: " + count);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        // per record statuses are only needed by the listeners
+        int[] statuses = listeners.isEmpty() ? null : new int[count];
+        int failed = _drain(session, buffer, offset, count, statuses);
+        if (statuses != null) {
+            ByteBuffer records = buffer.duplicate().order(nativeOrder());
+            for (int i = 0; i < count; i++) {
+                if (statuses[i] != AKU_SUCCESS.code) {
+                    continue;
+                }
+                int position = (offset + i) * RECORD_SIZE;
+                long id = records.getLong(position + ID_OFFSET);
+                String series = seriesName(id);
+                if (series != null) {
+                    listeners.fire(records.getLong(position + TIMESTAMP_OFFSET), series, records.getDouble(position + VALUE_OFFSET));
+                }
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Writes all published records of the ring and releases their slots.
+     * 
+     * Only one thread at a time can drain the ring.
+     * 
+     * @return number of drained records
+     */
+    public int drain(SampleRing ring) {
+        if (ring == null) {
+            throw new IllegalArgumentException("ring");
+        }
+        return ring.drain(this);
+    }
+
+    /**
+     * Sets the retry strategy of the writes rejected while the storage is busy.
+     */
+    public void setRetryPolicy(RetryPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy");
+        }
+        _retryPolicy(session,
+                     policy.getSpins(),
+                     policy.getYields(),
+                     policy.getMinPark().toNanos(),
+                     policy.getMaxPark().toNanos(),
+                     policy.getMaxWait().toNanos());
+    }
+
+    /**
+     * Number of retried writes since the session is opened.
+     */
+    public long getRetryCount() {
+        long[] stats = new long[2];
+        _retryStats(session, stats);
+        return stats[0];
+    }
+
+    /**
+     * Time spent waiting for a busy storage since the session is opened, in nanoseconds.
+     */
+    public long getBusyWaitNanos() {
+        long[] stats = new long[2];
+        _retryStats(session, stats);
+        return stats[1];
+    }
+
+    private void check(int code, String series, long timestamp) {
+        if (code == AKU_SUCCESS.code) {
+            return;
+        }
+        Status status = fromCode(code);
+        if (status == null) {
+            status = AKU_EGENERAL;
+        }
+        switch (status) {
+            case AKU_EBAD_ARG:
+            case AKU_EBAD_DATA:
+                throw new InvalidSeriesException(status.code, series);
+            case AKU_ELATE_WRITE:
+                throw new LateWriteException(series, timestamp);
+            default:
+                throw new WriteException(status, series, timestamp);
+        }
+    }
+
+    private void checkSeries(String series) {
         if (series == null) {
             throw new IllegalArgumentException("series");
         }
         if (series.length() > MAX_SERIES_LENGTH) {
             throw new IllegalArgumentException("series length must less than " + MAX_SERIES_LENGTH);
         }
-        _add(session, timestamp, series, value);
     }
 
-    public void add(Instant timestamp, String series, double value) {
-        add(TimeUtils.toEpoch(timestamp), series, value);
+    /**
+     * Writes the values of a compound series which share the same tags and timestamp.
+     * 
+     * The series name uses the format of {@link JoinCriteria} results (e.g. <code>cpu.user|cpu.sys host=a</code>)
+     * and the values are in the order of the metrics.
+     */
+    public void add(long timestamp, String compoundSeries, double[] values) {
+        if (timestamp < 0) {
+            throw new IllegalArgumentException("[timestamp] parameter is required");
+        }
+        checkSeries(compoundSeries);
+        if (values == null || values.length == 0) {
+            throw new IllegalArgumentException("values");
+        }
+        int metrics = 1;
+        for (int i = 0; i < compoundSeries.length(); i++) {
+            char c = compoundSeries.charAt(i);
+            if (c == ' ') {
+                break;
+            }
+            if (c == '|') {
+                metrics += 1;
+            }
+        }
+        if (metrics != values.length) {
+            throw new IllegalArgumentException("series has [" + metrics + "] metrics but [" + values.length + "] values are given");
+        }
+        check(_addCompound(session, timestamp, compoundSeries, values), compoundSeries, timestamp);
+        if (!listeners.isEmpty()) {
+            // every metric of the compound series is stored as a separate series
+            int tags = compoundSeries.indexOf(' ');
+            String suffix = tags < 0 ? "" : compoundSeries.substring(tags);
+            int start = 0;
+            for (int i = 0; i < values.length; i++) {
+                int end = compoundSeries.indexOf('|', start);
+                if (end < 0 || (tags >= 0 && end > tags)) {
+                    end = tags < 0 ? compoundSeries.length() : tags;
+                }
+                listeners.fire(timestamp, compoundSeries.substring(start, end) + suffix, values[i]);
+                start = end + 1;
+            }
+        }
+    }
+
+    public void add(Instant timestamp, String compoundSeries, double[] values) {
+        add(TimeUtils.toEpoch(timestamp), compoundSeries, values);
+    }
+
+    /**
+     * Writes <code>length</code> rows starting from <code>offset</code> with a single native call.
+     * 
+     * Rows are not validated on the Java side and a failed row doesn't stop the batch.
+     * The returned array contains the status code of each row ({@link Status#fromCode(int)}),
+     * <code>0</code> ({@link Status#AKU_SUCCESS}) if the row is stored.
+     */
+    public int[] addBatch(long[] timestamps, String[] series, double[] values, int offset, int length) {
+        if (timestamps == null) {
+            throw new IllegalArgumentException("timestamps");
+        }
+        if (series == null) {
+            throw new IllegalArgumentException("series");
+        }
+        if (values == null) {
+            throw new IllegalArgumentException("values");
+        }
+        if (offset < 0 || length < 0 ||
+                offset + length > timestamps.length ||
+                offset + length > series.length ||
+                offset + length > values.length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length);
+        }
+        int[] statuses = new int[length];
+        if (length > 0) {
+            _addBatch(session, timestamps, series, values, offset, length, statuses);
+            if (!listeners.isEmpty()) {
+                for (int i = 0; i < length; i++) {
+                    if (statuses[i] == AKU_SUCCESS.code) {
+                        listeners.fire(timestamps[offset + i], series[offset + i], values[offset + i]);
+                    }
+                }
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * Writes all rows of the batch with a single native call.
+     * 
+     * @return number of failed rows, see {@link WriteBatch#getStatus(int)}
+     */
+    public int add(WriteBatch batch) {
+        if (batch == null) {
+            throw new IllegalArgumentException("batch");
+        }
+        if (batch.isEmpty()) {
+            batch.setFailed(0);
+            return 0;
+        }
+        int failed = _addBatch(session,
+                               batch.timestamps(),
+                               batch.series(),
+                               batch.values(),
+                               0,
+                               batch.size(),
+                               batch.statuses());
+        batch.setFailed(failed);
+        if (!listeners.isEmpty()) {
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.statuses()[i] == AKU_SUCCESS.code) {
+                    listeners.fire(batch.timestamps()[i], batch.series()[i], batch.values()[i]);
+                }
+            }
+        }
+        return failed;
     }
 
+    /**
+     * Destroys the session, or returns it to the {@link SessionPool} if it is borrowed from a pool.
+     */
     @Override
     public void close() {
+        if (pool != null) {
+            pool.release(this);
+        } else {
+            destroy();
+        }
+    }
+
+    void destroy() {
         _close(session);
         session = 0;
     }
 
+    private String seriesName(long id) {
+        if (seriesNames == null) {
+            seriesNames = new LinkedHashMap<Long, String>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                    return size() > MAX_SERIES_NAMES;
+                }
+            };
+        }
+        String series = seriesNames.get(id);
+        if (series == null) {
+            series = _seriesName(session, id);
+            if (series != null) {
+                seriesNames.put(id, series);
+            }
+        }
+        return series;
+    }
+
+    SessionPool getPool() {
+        return pool;
+    }
+
+    int getPoolIndex() {
+        return poolIndex;
+    }
+
     public MetaDataCursor metadata() {
         return queryMetadata("", "", emptyList());
     }
@@ -99,27 +502,66 @@ public class Session implements AutoCloseable {
     }
 
     public SimpleCursor query(SelectCriteria criteria) {
-        return query((Criteria) criteria);
+        return query((Criteria) criteria, QueryOptions.DEFAULT);
     }
 
     public AggregateCursor query(AggregateCriteria criteria) {
-        return query((Criteria) criteria);
+        return query((Criteria) criteria, QueryOptions.DEFAULT);
     }
 
     public GroupAggregateCursor query(GroupAggregateCriteria criteria) {
-        return query((Criteria) criteria);
+        return query((Criteria) criteria, QueryOptions.DEFAULT);
     }
 
     public CompoundCursor query(JoinCriteria criteria) {
-        return query((Criteria) criteria);
+        return query((Criteria) criteria, QueryOptions.DEFAULT);
     }
 
-    private Cursor query(Criteria criteria) {
-        String json = criteria.toJson();
-        if (json == null) {
-            return null;
+    public SimpleCursor query(SelectCriteria criteria, QueryOptions options) {
+        return query((Criteria) criteria, options);
+    }
+
+    public AggregateCursor query(AggregateCriteria criteria, QueryOptions options) {
+        return query((Criteria) criteria, options);
+    }
+
+    public GroupAggregateCursor query(GroupAggregateCriteria criteria, QueryOptions options) {
+        return query((Criteria) criteria, options);
+    }
+
+    public CompoundCursor query(JoinCriteria criteria, QueryOptions options) {
+        return query((Criteria) criteria, options);
+    }
+
+    /**
+     * Runs a prepared query, the bound JSON is passed to the native query without creating a string.
+     */
+    public <T extends BaseCursor> T query(PreparedCriteria<T> criteria) {
+        return query(criteria, QueryOptions.DEFAULT);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends BaseCursor> T query(PreparedCriteria<T> criteria, QueryOptions options) {
+        if (criteria == null) {
+            throw new IllegalArgumentException("criteria");
+        }
+        return (T) query((Criteria) criteria, options);
+    }
+
+    Cursor query(Criteria criteria, QueryOptions options) {
+        if (options == null) {
+            throw new IllegalArgumentException("options");
+        }
+        long peer;
+        if (criteria instanceof PreparedCriteria) {
+            peer = _queryBuffer(session, ((PreparedCriteria<?>) criteria).encode(), options.getBufferSize(), options.isPrefetch());
+        } else {
+            String json = criteria.toJson();
+            if (json == null) {
+                return null;
+            }
+            peer = _query(session, json, options.getBufferSize(), options.isPrefetch());
         }
-        long peer = _query(session, json);
         if (peer > 0) {
             return new Cursor(peer);
         } else {
@@ -0,0 +1,402 @@
+package io.webfolder.tsdb4j;
+
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Thread-safe pool of {@link Session}.
+ *
+ * Sessions are created lazily up to the maximum size of the pool.
+ * A borrowed session is used by one thread at a time and {@link Session#close()}
+ * returns it to the pool instead of destroying it.
+ *
+ * Every Akumuli session keeps its own series name cache. {@link #add(long, String, double)}
+ * routes a series always to the same session so that cache stays hot.
+ */
+public class SessionPool implements AutoCloseable {
+
+    private final long db;
+
+    private final WriteListeners listeners;
+
+    private final Rollups rollups;
+
+    private final Slot[] slots;
+
+    private final Semaphore permits;
+
+    private final ThreadLocal<Slot> current = new ThreadLocal<>();
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    private final AtomicLong borrowCount = new AtomicLong();
+
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+
+    private volatile boolean closed;
+
+    private static class Slot {
+
+        final int index;
+
+        final Semaphore lock = new Semaphore(1);
+
+        // set by borrow, cleared exactly once by release
+        final AtomicBoolean borrowed = new AtomicBoolean();
+
+        // borrowing thread
+        volatile Thread owner;
+
+        // thread which borrowed the session with current(), cleared by release
+        volatile Thread affine;
+
+        Session session;
+
+        Slot(int index) {
+            this.index = index;
+        }
+    }
+
+    SessionPool(long db, int maxSize, WriteListeners listeners, Rollups rollups) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("[maxSize] must be greater or equal than: [1]");
+        }
+        this.db = db;
+        this.listeners = listeners;
+        this.rollups = rollups;
+        this.slots = new Slot[maxSize];
+        for (int i = 0; i < maxSize; i++) {
+            slots[i] = new Slot(i);
+        }
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Borrows a session, waits until a session is available.
+     */
+    public Session borrow() {
+        long start = System.nanoTime();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TsdbException("interrupted while waiting for a session");
+        }
+        return acquire(start);
+    }
+
+    /**
+     * Borrows a session.
+     *
+     * @return <code>null</code> if no session is available in the given time
+     */
+    public Session borrow(long timeout, TimeUnit unit) {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(timeout, unit)) {
+                borrowWaitNanos.addAndGet(System.nanoTime() - start);
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TsdbException("interrupted while waiting for a session");
+        }
+        return acquire(start);
+    }
+
+    /**
+     * Returns a borrowed session to the pool, same as {@link Session#close()}.
+     */
+    public void release(Session session) {
+        if (session == null || session.getPool() != this) {
+            throw new IllegalArgumentException("session is not borrowed from this pool");
+        }
+        Slot slot = slots[session.getPoolIndex()];
+        if (!slot.borrowed.compareAndSet(true, false)) {
+            // already released
+            return;
+        }
+        slot.owner = null;
+        slot.affine = null;
+        if (current.get() == slot) {
+            current.remove();
+        }
+        active.decrementAndGet();
+        unlock(slot);
+        permits.release();
+    }
+
+    /**
+     * Thread-affine mode, returns the session bound to the calling thread.
+     *
+     * The first call borrows a session, the next calls on the same thread return the
+     * same session until {@link #releaseCurrent()} is called.
+     */
+    public Session current() {
+        Slot slot = bound();
+        if (slot != null) {
+            return slot.session;
+        }
+        Session session = borrow();
+        slot = slots[session.getPoolIndex()];
+        slot.affine = Thread.currentThread();
+        current.set(slot);
+        return session;
+    }
+
+    /**
+     * Returns the session bound to the calling thread to the pool.
+     */
+    public void releaseCurrent() {
+        Slot slot = bound();
+        if (slot != null) {
+            release(slot.session);
+        }
+    }
+
+    /**
+     * Writes the sample on the session which the series is routed to.
+     */
+    public void add(long timestamp, String series, double value) {
+        if (series == null) {
+            throw new IllegalArgumentException("series");
+        }
+        Slot slot = slots[(series.hashCode() & 0x7fffffff) % slots.length];
+        if (slot.owner == Thread.currentThread()) {
+            // the calling thread already borrowed the session, waiting for it would never return
+            slot.session.add(timestamp, series, value);
+            return;
+        }
+        if (!slot.lock.tryAcquire()) {
+            // writes of the calling thread are synchronous, any idle session keeps them in order
+            Slot idle = null;
+            for (int i = 1; i < slots.length && idle == null; i++) {
+                Slot next = slots[(slot.index + i) % slots.length];
+                if (next.lock.tryAcquire()) {
+                    idle = next;
+                }
+            }
+            if (idle == null) {
+                Slot owned = owned();
+                if (owned != null) {
+                    // the calling thread holds another session, waiting for the routed one
+                    // may wait for a thread which in turn waits for the owned session
+                    owned.session.add(timestamp, series, value);
+                    return;
+                }
+                slot.lock.acquireUninterruptibly();
+            } else {
+                slot = idle;
+            }
+        }
+        try {
+            ensureOpen(slot);
+            slot.session.add(timestamp, series, value);
+        } finally {
+            unlock(slot);
+        }
+    }
+
+    public void add(Instant timestamp, String series, double value) {
+        add(TimeUtils.toEpoch(timestamp), series, value);
+    }
+
+    /**
+     * Stream of the rows of a select query.
+     *
+     * The time range of the query is split into at most <code>parallelism</code> sub-ranges, each
+     * sub-range is read on its own session of the pool. For {@link OrderBy#time} the stream is ordered,
+     * otherwise rows of the sub-ranges are interleaved. Queries with limit or offset are not split.
+     *
+     * The stream must be closed if it is not fully consumed, closing it returns the sessions to the pool.
+     */
+    public Stream<Sample> stream(SelectCriteria criteria, int parallelism) {
+        if (criteria == null) {
+            throw new IllegalArgumentException("criteria");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("[parallelism] must be greater or equal than: [1]");
+        }
+        long from = criteria.getFrom();
+        long to = criteria.getTo();
+        boolean splittable = from > 0 && to > from && criteria.getLimit() < 0 && criteria.getOffset() < 0;
+        int splits = splittable ? Math.min(parallelism, slots.length) : 1;
+        Set<RangeSpliterator> open = ConcurrentHashMap.newKeySet();
+        RangeSpliterator spliterator = new RangeSpliterator(this, criteria, from, to, splits, open);
+        return StreamSupport.stream(spliterator, splits > 1).onClose(() -> {
+            for (RangeSpliterator next : open) {
+                next.close();
+            }
+        });
+    }
+
+    /**
+     * Demand-driven publisher of the rows of a query, see {@link QueryPublisher}.
+     *
+     * @param executor executor of the cursor reads, a bounded pool caps the number of concurrent reads
+     */
+    public QueryPublisher publisher(Criteria criteria, Executor executor) {
+        return new QueryPublisher(this, criteria, QueryOptions.DEFAULT, executor);
+    }
+
+    public QueryPublisher publisher(Criteria criteria, QueryOptions options, Executor executor) {
+        return new QueryPublisher(this, criteria, options, executor);
+    }
+
+    Rollups getRollups() {
+        return rollups;
+    }
+
+    public int getMaxSize() {
+        return slots.length;
+    }
+
+    /**
+     * Number of borrowed sessions.
+     */
+    public int getActiveSessions() {
+        return active.get();
+    }
+
+    /**
+     * Number of sessions created by the pool.
+     */
+    public int getCreatedSessions() {
+        return created.get();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * Total time spent by the threads waiting for a session, in nanoseconds.
+     */
+    public long getBorrowWaitNanos() {
+        return borrowWaitNanos.get();
+    }
+
+    /**
+     * Destroys the idle sessions, borrowed sessions are destroyed when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Slot next : slots) {
+            if (next.lock.tryAcquire()) {
+                try {
+                    destroy(next);
+                } finally {
+                    next.lock.release();
+                }
+            }
+        }
+    }
+
+    private Session acquire(long start) {
+        Slot slot = null;
+        int offset = (int) (Thread.currentThread().getId() % slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            Slot next = slots[(offset + i) % slots.length];
+            if (next.lock.tryAcquire()) {
+                slot = next;
+                break;
+            }
+        }
+        if (slot == null) {
+            // all sessions are busy with routed writes
+            slot = slots[offset];
+            slot.lock.acquireUninterruptibly();
+        }
+        try {
+            ensureOpen(slot);
+        } catch (RuntimeException e) {
+            unlock(slot);
+            permits.release();
+            throw e;
+        }
+        slot.owner = Thread.currentThread();
+        slot.borrowed.set(true);
+        active.incrementAndGet();
+        borrowCount.incrementAndGet();
+        borrowWaitNanos.addAndGet(System.nanoTime() - start);
+        return slot.session;
+    }
+
+    /**
+     * Slot bound to the calling thread by {@link #current()}, <code>null</code> if the session
+     * is returned to the pool meanwhile, possibly by another thread.
+     */
+    private Slot bound() {
+        Slot slot = current.get();
+        if (slot == null) {
+            return null;
+        }
+        if (slot.borrowed.get() && slot.affine == Thread.currentThread()) {
+            return slot;
+        }
+        current.remove();
+        return null;
+    }
+
+    /**
+     * Slot borrowed by the calling thread.
+     */
+    private Slot owned() {
+        Thread thread = Thread.currentThread();
+        for (Slot next : slots) {
+            if (next.owner == thread) {
+                return next;
+            }
+        }
+        return null;
+    }
+
+    private void ensureOpen(Slot slot) {
+        if (closed) {
+            throw new IllegalStateException("session pool is closed");
+        }
+        if (slot.session == null) {
+            slot.session = new Session(db, listeners, this, slot.index);
+            created.incrementAndGet();
+        }
+    }
+
+    /**
+     * Unlocks the slot, destroys its session if the pool is closed meanwhile.
+     */
+    private void unlock(Slot slot) {
+        slot.lock.release();
+        // close() skips the slots that are locked, the last holder destroys the session
+        if (closed && slot.lock.tryAcquire()) {
+            try {
+                destroy(slot);
+            } finally {
+                slot.lock.release();
+            }
+        }
+    }
+
+    private void destroy(Slot slot) {
+        if (slot.session != null) {
+            slot.session.destroy();
+            slot.session = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SessionPool [maxSize=" + slots.length + ", active=" + active.get() + ", created=" + created.get() + "]";
+    }
+}
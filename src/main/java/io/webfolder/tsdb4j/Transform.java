@@ -0,0 +1,21 @@
+package io.webfolder.tsdb4j;
+
+/**
+ * Operator of a {@link TransformCursor}, see {@link Transforms}.
+ *
+ * Operators keep their state per series id of the cursor, an instance must be used by a single cursor.
+ */
+@FunctionalInterface
+public interface Transform {
+
+    /**
+     * Transforms the values of a row in place.
+     *
+     * @param seriesId series id of the row, dense per cursor
+     * @param timestamp timestamp of the row
+     * @param values values of the row, valid up to <code>count</code>
+     * @param count number of values
+     * @return <code>false</code> to drop the row
+     */
+    boolean apply(int seriesId, long timestamp, double[] values, int count);
+}
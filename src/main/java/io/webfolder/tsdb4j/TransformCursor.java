@@ -0,0 +1,120 @@
+package io.webfolder.tsdb4j;
+
+import static java.lang.Double.NaN;
+import static java.util.Arrays.copyOf;
+
+import java.time.Instant;
+
+/**
+ * Cursor which applies a pipeline of {@link Transform} operators to the rows of a query.
+ *
+ * Rows are read lazily in flyweight mode ({@link BaseCursor#nextRow()}), the transformed values
+ * are stored in a reused array. Closing the transform cursor closes the query cursor.
+ */
+public class TransformCursor implements AutoCloseable {
+
+    private final BaseCursor cursor;
+
+    private final Transform[] transforms;
+
+    private double[] values = new double[16];
+
+    private int count;
+
+    TransformCursor(BaseCursor cursor, Transform[] transforms) {
+        if (cursor == null) {
+            throw new IllegalArgumentException("cursor");
+        }
+        if (transforms == null) {
+            throw new IllegalArgumentException("transforms");
+        }
+        for (Transform next : transforms) {
+            if (next == null) {
+                throw new IllegalArgumentException("transform");
+            }
+        }
+        this.cursor = cursor;
+        this.transforms = transforms.clone();
+    }
+
+    /**
+     * Moves to the next row which is not dropped by an operator.
+     *
+     * @return <code>false</code> if the cursor is exhausted
+     */
+    public boolean next() {
+        while (cursor.nextRow()) {
+            int valueCount = cursor.getValueCount();
+            if (valueCount > values.length) {
+                values = copyOf(values, Math.max(valueCount, values.length * 2));
+            }
+            for (int i = 0; i < valueCount; i++) {
+                values[i] = cursor.getValue(i);
+            }
+            count = valueCount;
+            int seriesId = cursor.getSeriesId();
+            long timestamp = cursor.getTimestamp();
+            boolean accepted = true;
+            for (int i = 0; accepted && i < transforms.length; i++) {
+                accepted = transforms[i].apply(seriesId, timestamp, values, valueCount);
+            }
+            if (accepted) {
+                return true;
+            }
+        }
+        count = 0;
+        return false;
+    }
+
+    public long getTimestamp() {
+        return cursor.getTimestamp();
+    }
+
+    public Instant getTimestampAsInstant() {
+        return TimeUtils.fromEpoch(getTimestamp());
+    }
+
+    public int getSeriesId() {
+        return cursor.getSeriesId();
+    }
+
+    public String getSeries() {
+        return cursor.getSeries();
+    }
+
+    public ParsedSeries getParsedSeries() {
+        return cursor.getParsedSeries();
+    }
+
+    public int getValueCount() {
+        return count;
+    }
+
+    public double getValue() {
+        return count > 0 ? values[0] : NaN;
+    }
+
+    public double getValue(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+        return values[index];
+    }
+
+    /**
+     * Copy of the transformed values of the current row.
+     */
+    public double[] getValues() {
+        return copyOf(values, count);
+    }
+
+    @Override
+    public void close() {
+        cursor.close();
+    }
+
+    @Override
+    public String toString() {
+        return "TransformCursor [transforms=" + transforms.length + "]";
+    }
+}
@@ -0,0 +1,178 @@
+package io.webfolder.tsdb4j;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Streaming per-series operators.
+ *
+ * Operators are evaluated row by row by a {@link TransformCursor} and keep one state per series:
+ *
+ * <pre>
+ * TransformCursor cursor = Transforms.apply(session.query(criteria), Transforms.rate(), Transforms.sma(5));
+ * while (cursor.next()) {
+ *     cursor.getSeries(), cursor.getTimestamp(), cursor.getValue()
+ * }
+ * cursor.close();
+ * </pre>
+ *
+ * Each call of a factory method returns a new operator. Operators which need the previous row
+ * drop the first row of each series.
+ */
+public final class Transforms {
+
+    private static final double NANOS_PER_SECOND = SECONDS.toNanos(1);
+
+    private Transforms() {
+        // no op
+    }
+
+    public static TransformCursor apply(BaseCursor cursor, Transform... transforms) {
+        return new TransformCursor(cursor, transforms);
+    }
+
+    /**
+     * Difference with the previous value of the series.
+     */
+    public static Transform delta() {
+        return new Difference(false, false);
+    }
+
+    /**
+     * Per second change of the series.
+     */
+    public static Transform derivative() {
+        return new Difference(true, false);
+    }
+
+    /**
+     * Per second increase of a counter, a decrease is a counter reset and the value is the increase since the reset.
+     */
+    public static Transform rate() {
+        return new Difference(true, true);
+    }
+
+    /**
+     * Simple moving average of the last <code>window</code> values of the series, the average of the
+     * available values until the window is filled.
+     */
+    public static Transform sma(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("[window] must be greater or equal than: [1]");
+        }
+        return new MovingAverage(window);
+    }
+
+    /**
+     * Exponentially weighted moving average, <code>average = alpha * value + (1 - alpha) * average</code>.
+     */
+    public static Transform ewma(double alpha) {
+        if (!(alpha > 0 && alpha <= 1)) {
+            throw new IllegalArgumentException("[alpha] must be in range: (0, 1]");
+        }
+        SeriesState state = new SeriesState();
+        return (seriesId, timestamp, values, count) -> {
+            double[] average = state.get(seriesId);
+            if (average == null || average.length != count) {
+                average = state.create(seriesId, count);
+                System.arraycopy(values, 0, average, 0, count);
+                return true;
+            }
+            for (int i = 0; i < count; i++) {
+                average[i] = alpha * values[i] + (1 - alpha) * average[i];
+                values[i] = average[i];
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Limits the values to <code>[min, max]</code>.
+     */
+    public static Transform clamp(double min, double max) {
+        if (min > max) {
+            throw new IllegalArgumentException("[min] must be less or equal than: [" + max + "]");
+        }
+        return (seriesId, timestamp, values, count) -> {
+            for (int i = 0; i < count; i++) {
+                if (values[i] < min) {
+                    values[i] = min;
+                } else if (values[i] > max) {
+                    values[i] = max;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static class Difference implements Transform {
+
+        private final SeriesState state = new SeriesState();
+
+        private final boolean perSecond;
+
+        private final boolean counter;
+
+        Difference(boolean perSecond, boolean counter) {
+            this.perSecond = perSecond;
+            this.counter = counter;
+        }
+
+        @Override
+        public boolean apply(int seriesId, long timestamp, double[] values, int count) {
+            double[] previous = state.get(seriesId);
+            if (previous == null || previous.length != count) {
+                previous = state.create(seriesId, count);
+                System.arraycopy(values, 0, previous, 0, count);
+                state.setMark(seriesId, timestamp);
+                return false;
+            }
+            long elapsed = timestamp - state.getMark(seriesId);
+            if (perSecond && elapsed <= 0) {
+                // duplicated timestamp
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                double value = values[i];
+                double change = counter && value < previous[i] ? value : value - previous[i];
+                values[i] = perSecond ? change * NANOS_PER_SECOND / elapsed : change;
+                previous[i] = value;
+            }
+            state.setMark(seriesId, timestamp);
+            return true;
+        }
+    }
+
+    private static class MovingAverage implements Transform {
+
+        private final SeriesState state = new SeriesState();
+
+        private final int window;
+
+        MovingAverage(int window) {
+            this.window = window;
+        }
+
+        @Override
+        public boolean apply(int seriesId, long timestamp, double[] values, int count) {
+            // window values of each value followed by the sums
+            double[] ring = state.get(seriesId);
+            if (ring == null || ring.length != count * (window + 1)) {
+                ring = state.create(seriesId, count * (window + 1));
+            }
+            long seen = state.getMark(seriesId);
+            int position = (int) (seen % window);
+            int size = (int) Math.min(seen + 1, window);
+            for (int i = 0; i < count; i++) {
+                int sum = count * window + i;
+                if (seen >= window) {
+                    ring[sum] -= ring[i * window + position];
+                }
+                ring[i * window + position] = values[i];
+                ring[sum] += values[i];
+                values[i] = ring[sum] / size;
+            }
+            state.setMark(seriesId, seen + 1);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package io.webfolder.tsdb4j;
+
+import static io.webfolder.tsdb4j.Constant.MAX_SERIES_LENGTH;
+import static io.webfolder.tsdb4j.Status.AKU_SUCCESS;
+import static io.webfolder.tsdb4j.Status.fromCode;
+import static java.util.Arrays.fill;
+
+import java.time.Instant;
+
+/**
+ * Reusable holder for the rows of a batched write.
+ *
+ * Rows are sent to the database with a single native call by {@link Session#add(WriteBatch)}.
+ * A failed row doesn't stop the batch, its status can be read with {@link #getStatus(int)}.
+ *
+ * The batch can be reused after {@link #clear()}.
+ */
+public class WriteBatch {
+
+    private final long[] timestamps;
+
+    private final String[] series;
+
+    private final double[] values;
+
+    private final int[] statuses;
+
+    private int size;
+
+    private int failed;
+
+    public WriteBatch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("[capacity] must be greater or equal than: [1]");
+        }
+        this.timestamps = new long[capacity];
+        this.series = new String[capacity];
+        this.values = new double[capacity];
+        this.statuses = new int[capacity];
+    }
+
+    public void add(long timestamp, String series, double value) {
+        if (timestamp < 0) {
+            throw new IllegalArgumentException("[timestamp] parameter is required");
+        }
+        if (series == null) {
+            throw new IllegalArgumentException("series");
+        }
+        if (series.length() > MAX_SERIES_LENGTH) {
+            throw new IllegalArgumentException("series length must less than " + MAX_SERIES_LENGTH);
+        }
+        if (isFull()) {
+            throw new IllegalStateException("batch is full");
+        }
+        this.timestamps[size] = timestamp;
+        this.series[size] = series;
+        this.values[size] = value;
+        this.statuses[size] = AKU_SUCCESS.code;
+        size += 1;
+    }
+
+    public void add(Instant timestamp, String series, double value) {
+        add(TimeUtils.toEpoch(timestamp), series, value);
+    }
+
+    public void clear() {
+        fill(series, 0, size, null);
+        size = 0;
+        failed = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == timestamps.length;
+    }
+
+    /**
+     * Number of rows rejected by the last write of this batch.
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return timestamps[index];
+    }
+
+    public String getSeries(int index) {
+        checkIndex(index);
+        return series[index];
+    }
+
+    public double getValue(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    /**
+     * Write status of the row, {@link Status#AKU_SUCCESS} if the row is stored.
+     */
+    public Status getStatus(int index) {
+        checkIndex(index);
+        return fromCode(statuses[index]);
+    }
+
+    long[] timestamps() {
+        return timestamps;
+    }
+
+    String[] series() {
+        return series;
+    }
+
+    double[] values() {
+        return values;
+    }
+
+    int[] statuses() {
+        return statuses;
+    }
+
+    void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBatch [size=" + size + ", capacity=" + timestamps.length + ", failed=" + failed + "]";
+    }
+}
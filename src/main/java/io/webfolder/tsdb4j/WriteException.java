@@ -0,0 +1,29 @@
+package io.webfolder.tsdb4j;
+
+public class WriteException extends DatabaseException {
+
+    private static final long serialVersionUID = 4270512954046937207L;
+
+    private final String series;
+
+    private final long timestamp;
+
+    WriteException(Status status, String series, long timestamp) {
+        super(status);
+        this.series = series;
+        this.timestamp = timestamp;
+    }
+
+    public String getSeries() {
+        return series;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteException [series=" + series + ", timestamp=" + timestamp + ", status=" + getStatus() + "]";
+    }
+}
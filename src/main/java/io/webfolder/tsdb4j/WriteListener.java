@@ -0,0 +1,14 @@
+package io.webfolder.tsdb4j;
+
+/**
+ * Receives the samples written by the sessions of a {@link Database}.
+ *
+ * Listeners are called on the writing thread after the sample is stored, they must be fast and thread-safe.
+ *
+ * @see Database#addWriteListener(WriteListener)
+ */
+@FunctionalInterface
+public interface WriteListener {
+
+    void onWrite(long timestamp, String series, double value);
+}
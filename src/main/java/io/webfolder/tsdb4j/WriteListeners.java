@@ -0,0 +1,42 @@
+package io.webfolder.tsdb4j;
+
+import java.util.Arrays;
+
+/**
+ * Copy-on-write list of the {@link WriteListener} of a database, shared by its sessions.
+ */
+class WriteListeners {
+
+    private static final WriteListener[] EMPTY = new WriteListener[0];
+
+    private volatile WriteListener[] listeners = EMPTY;
+
+    synchronized void add(WriteListener listener) {
+        WriteListener[] next = Arrays.copyOf(listeners, listeners.length + 1);
+        next[listeners.length] = listener;
+        listeners = next;
+    }
+
+    synchronized boolean remove(WriteListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                WriteListener[] next = new WriteListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, next, 0, i);
+                System.arraycopy(listeners, i + 1, next, i, listeners.length - i - 1);
+                listeners = next;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isEmpty() {
+        return listeners.length == 0;
+    }
+
+    void fire(long timestamp, String series, double value) {
+        for (WriteListener next : listeners) {
+            next.onWrite(timestamp, series, value);
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package io.webfolder.tsdb4j;
 
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -249,4 +254,314 @@ public class CriteriaTest extends AbstractTest {
         db.delete();
         deleteIfExists(db.getPath());
     }
+
+    @Test
+    public void t06_batch() {
+        Database db = createTempDb();
+        db.open();
+        Session session = db.createSession();
+        long now = now();
+        for (int i = 0; i < 10_000; i++) {
+            session.add(now + i, i % 2 == 0 ? "mem server=1" : "mem server=2", i);
+        }
+        SelectCriteria criteria = SelectCriteria.builder()
+                                        .select("mem")
+                                        .from(now)
+                                        .to(now + 10_000)
+                                    .build();
+        SimpleCursor cursor = session.query(criteria);
+        RowBatch batch = new RowBatch(1024);
+        int counter = 0;
+        double sum = 0;
+        int rows;
+        while ((rows = cursor.nextBatch(batch)) > 0) {
+            for (int i = 0; i < rows; i++) {
+                Assert.assertEquals(1, batch.getValueCount(i));
+                String series = cursor.getSeries(batch.getSeriesId(i));
+                Assert.assertTrue(series.equals("mem server=1") || series.equals("mem server=2"));
+                sum += batch.getValue(i);
+                counter += 1;
+            }
+        }
+        Assert.assertEquals(10_000, counter);
+        Assert.assertEquals(49_995_000D, sum, 0);
+        Assert.assertFalse(cursor.hasNext());
+        cursor.close();
+        session.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t07_flyweight() {
+        Database db = createTempDb();
+        db.open();
+        Session session = db.createSession();
+        long now = now();
+        for (int i = 0; i < 10_000; i++) {
+            session.add(now + i, "mem server=1", i);
+        }
+        SelectCriteria criteria = SelectCriteria.builder()
+                                        .select("mem")
+                                        .from(now)
+                                        .to(now + 10_000)
+                                    .build();
+        SimpleCursor cursor = session.query(criteria);
+        int counter = 0;
+        while (cursor.nextRow()) {
+            Assert.assertEquals(0, cursor.getSeriesId());
+            Assert.assertEquals(1, cursor.getValueCount());
+            Assert.assertEquals(counter, cursor.getValue(0), 0);
+            Assert.assertEquals(now + counter, cursor.getTimestamp());
+            counter += 1;
+        }
+        Assert.assertEquals(10_000, counter);
+        Assert.assertEquals("mem server=1", cursor.getSeries(0));
+        Assert.assertFalse(cursor.hasNext());
+        cursor.close();
+        session.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t08_seriesCache() {
+        Database db = createTempDb();
+        db.open();
+        Session session = db.createSession();
+        long now = now();
+        for (int i = 0; i < 100; i++) {
+            session.add(now + i, "mem server=1", i);
+        }
+        SelectCriteria criteria = SelectCriteria.builder()
+                                        .select("mem")
+                                        .from(now)
+                                        .to(now + 100)
+                                    .build();
+        SimpleCursor cursor = session.query(criteria);
+        String first = cursor.next();
+        Assert.assertEquals("mem server=1", first);
+        int counter = 1;
+        while (cursor.hasNext()) {
+            Assert.assertSame(first, cursor.next());
+            Assert.assertEquals(0, cursor.getSeriesId());
+            Assert.assertEquals(counter, cursor.getValue(), 0);
+            counter += 1;
+        }
+        Assert.assertEquals(100, counter);
+        cursor.close();
+        session.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t09_raw() {
+        Database db = createTempDb();
+        db.open();
+        Session session = db.createSession();
+        long now = now();
+        for (int i = 0; i < 10_000; i++) {
+            session.add(now + i, "mem server=1", i);
+        }
+        SelectCriteria criteria = SelectCriteria.builder()
+                                        .select("mem")
+                                        .from(now)
+                                        .to(now + 10_000)
+                                    .build();
+        SimpleCursor cursor = session.query(criteria);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16 * 1024);
+        SampleReader reader = new SampleReader(buffer);
+        int counter = 0;
+        long paramId = 0;
+        while (cursor.read(buffer) > 0) {
+            buffer.flip();
+            reader.reset();
+            while (reader.next()) {
+                Assert.assertTrue(reader.isFloat());
+                Assert.assertEquals(now + counter, reader.getTimestamp());
+                Assert.assertEquals(counter, reader.getValue(), 0);
+                paramId = reader.getParamId();
+                counter += 1;
+            }
+            buffer.clear();
+        }
+        Assert.assertEquals(10_000, counter);
+        Assert.assertEquals("mem server=1", cursor.resolveSeries(paramId));
+        cursor.close();
+        session.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t10_prefetch() throws InterruptedException {
+        Database db = createTempDb();
+        db.open();
+        Session session = db.createSession();
+        long now = now();
+        for (int i = 0; i < 100_000; i++) {
+            session.add(now + i, "mem server=" + (i % 2), i);
+        }
+        SelectCriteria criteria = SelectCriteria.builder()
+                                        .select("mem")
+                                        .from(now)
+                                        .to(now + 100_000)
+                                    .build();
+
+        // every synchronous read is a stall
+        SimpleCursor cursor = session.query(criteria, QueryOptions.builder().bufferSize(16 * 1024).build());
+        List<String> series = new ArrayList<>();
+        List<Long> timestamps = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        while (cursor.hasNext()) {
+            cursor.next();
+            series.add(cursor.getSeries());
+            timestamps.add(cursor.getTimestamp());
+            values.add(cursor.getValue());
+        }
+        Assert.assertEquals(100_000, values.size());
+        long stalls = cursor.getStallCount();
+        Assert.assertTrue(stalls > 1);
+        Assert.assertTrue(cursor.getStallNanos() > 0);
+        cursor.close();
+
+        // the worker reads the next buffer while the slow consumer reads the current one
+        cursor = session.query(criteria, QueryOptions.prefetch(16 * 1024));
+        int counter = 0;
+        while (cursor.hasNext()) {
+            cursor.next();
+            Assert.assertEquals(series.get(counter), cursor.getSeries());
+            Assert.assertEquals(timestamps.get(counter).longValue(), cursor.getTimestamp());
+            Assert.assertEquals(values.get(counter), cursor.getValue(), 0);
+            counter += 1;
+            if (counter % 500 == 0) {
+                Thread.sleep(1);
+            }
+        }
+        Assert.assertEquals(100_000, counter);
+        Assert.assertTrue(cursor.getStallCount() < stalls / 2);
+        cursor.close();
+        session.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t11_parseSeries() {
+        ParsedSeries parsed = SeriesParser.parse("cpu.usage:min|cpu.usage:max region=eu host=a");
+        Assert.assertSame(parsed, SeriesParser.parse("cpu.usage:min|cpu.usage:max region=eu host=a"));
+        Assert.assertEquals("cpu.usage", parsed.getMetric());
+        Assert.assertEquals(Arrays.asList("cpu.usage", "cpu.usage"), parsed.getMetrics());
+        Assert.assertEquals(Arrays.asList(AggregateFunction.min, AggregateFunction.max), parsed.getAggregateFunctions());
+        Assert.assertEquals(AggregateFunction.min, parsed.getAggregateFunction());
+        Assert.assertEquals(Arrays.asList(new Tag("host", "a"), new Tag("region", "eu")), parsed.getTags());
+        Assert.assertEquals("eu", parsed.getTag("region"));
+        Assert.assertNull(parsed.getTag("zone"));
+
+        parsed = SeriesParser.parse("mem server=1");
+        Assert.assertEquals("mem", parsed.getMetric());
+        Assert.assertNull(parsed.getAggregateFunction());
+        Assert.assertTrue(parsed.getAggregateFunctions().isEmpty());
+        Assert.assertEquals(1, parsed.getTags().size());
+
+        parsed = SeriesParser.parse("foo:bar|foo:max host=a");
+        Assert.assertEquals(Arrays.asList("foo:bar", "foo"), parsed.getMetrics());
+        Assert.assertEquals(Arrays.asList(AggregateFunction.max), parsed.getAggregateFunctions());
+    }
+
+    @Test
+    public void t12_prepared() {
+        Database db = createTempDb();
+        db.open();
+        Session session = db.createSession();
+        long now = now();
+        for (int i = 0; i < 10_000; i++) {
+            session.add(now + i, "mem server=1", i);
+            session.add(now + i, "mem server=\u00e9\"2", i);
+        }
+        PreparedCriteria<SimpleCursor> prepared = PreparedCriteria.prepare(SelectCriteria.builder()
+                                                        .select("mem")
+                                                        .from(1)
+                                                        .to(2)
+                                                        .where("server", Arrays.asList(PreparedCriteria.PARAMETER))
+                                                    .build());
+        Assert.assertEquals(1, prepared.getParameterCount());
+        for (String server : Arrays.asList("1", "\u00e9\"2")) {
+            for (int i = 0; i < 10; i++) {
+                SelectCriteria expected = SelectCriteria.builder()
+                                                .select("mem")
+                                                .from(now + i * 1_000)
+                                                .to(now + (i + 1) * 1_000)
+                                                .where("server", Arrays.asList(server))
+                                            .build();
+                prepared.range(now + i * 1_000, now + (i + 1) * 1_000).parameter(0, server);
+                Assert.assertEquals(expected.toJson(), prepared.toJson());
+                SimpleCursor cursor = session.query(prepared);
+                int counter = 0;
+                while (cursor.hasNext()) {
+                    cursor.next();
+                    Assert.assertEquals(i * 1_000 + counter, cursor.getValue(), 0);
+                    counter += 1;
+                }
+                cursor.close();
+                Assert.assertEquals(1_000, counter);
+            }
+        }
+        session.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t13_transforms() {
+        Database db = createTempDb();
+        db.open();
+        Session session = db.createSession();
+        long now = now();
+        double[] counter = { 0, 10, 20, 30, 5, 15 };
+        for (int i = 0; i < counter.length; i++) {
+            session.add(now + i * 1_000_000_000L, "requests host=a", counter[i]);
+            session.add(now + i * 1_000_000_000L, "requests host=b", 2 * counter[i]);
+        }
+        SelectCriteria criteria = SelectCriteria.builder()
+                                        .select("requests")
+                                        .from(now)
+                                        .to(now + counter.length * 1_000_000_000L)
+                                    .build();
+        TransformCursor cursor = Transforms.apply(session.query(criteria), Transforms.rate());
+        Map<String, List<Double>> rates = new HashMap<>();
+        while (cursor.next()) {
+            rates.computeIfAbsent(cursor.getSeries(), series -> new ArrayList<>()).add(cursor.getValue());
+        }
+        cursor.close();
+        Assert.assertEquals(Arrays.asList(10D, 10D, 10D, 5D, 10D), rates.get("requests host=a"));
+        Assert.assertEquals(Arrays.asList(20D, 20D, 20D, 10D, 20D), rates.get("requests host=b"));
+
+        cursor = Transforms.apply(session.query(criteria), Transforms.delta(), Transforms.sma(2), Transforms.clamp(0, 100));
+        Map<String, List<Double>> values = new HashMap<>();
+        while (cursor.next()) {
+            values.computeIfAbsent(cursor.getSeries(), series -> new ArrayList<>()).add(cursor.getValue());
+        }
+        cursor.close();
+        Assert.assertEquals(Arrays.asList(10D, 10D, 10D, 0D, 0D), values.get("requests host=a"));
+
+        cursor = Transforms.apply(session.query(criteria), Transforms.ewma(0.5));
+        values.clear();
+        while (cursor.next()) {
+            values.computeIfAbsent(cursor.getSeries(), series -> new ArrayList<>()).add(cursor.getValue());
+        }
+        cursor.close();
+        Assert.assertEquals(Arrays.asList(0D, 5D, 12.5D, 21.25D, 13.125D, 14.0625D), values.get("requests host=a"));
+        session.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
 }
@@ -1,5 +1,14 @@
 package io.webfolder.tsdb4j;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
 import org.junit.Test;
 
 public class InsertTest extends AbstractTest {
@@ -15,4 +24,308 @@ public class InsertTest extends AbstractTest {
         db.delete();
         deleteIfExists(db.getPath());
     }
+
+    @Test
+    public void t02_insertBatch() {
+        Database db = createTempDb();
+        db.open();
+        Session session = db.createSession();
+        long now = now();
+        WriteBatch batch = new WriteBatch(4);
+        batch.add(now, "mem server=1", 10);
+        batch.add(now + 1, "mem server=1", 20);
+        batch.add(now + 2, "invalid", 30);
+        batch.add(now + 3, "mem server=2", 40);
+        Assert.assertTrue(batch.isFull());
+        Assert.assertEquals(1, session.add(batch));
+        Assert.assertEquals(Status.AKU_SUCCESS, batch.getStatus(0));
+        Assert.assertEquals(Status.AKU_SUCCESS, batch.getStatus(1));
+        Assert.assertEquals(Status.AKU_EBAD_DATA, batch.getStatus(2));
+        Assert.assertEquals(Status.AKU_SUCCESS, batch.getStatus(3));
+        batch.clear();
+        Assert.assertTrue(batch.isEmpty());
+        int[] statuses = session.addBatch(new long[] { now + 4, now + 5, now + 6, now + 7 },
+                                          new String[] { "mem server=1", "mem server=2", null, "invalid" },
+                                          new double[] { 50, 60, 70, 80 },
+                                          0, 4);
+        Assert.assertArrayEquals(new int[] { Status.AKU_SUCCESS.code,
+                                             Status.AKU_SUCCESS.code,
+                                             Status.AKU_EBAD_ARG.code,
+                                             Status.AKU_EBAD_DATA.code }, statuses);
+        session.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t03_insertHandle() {
+        Database db = createTempDb();
+        db.open();
+        Session session = db.createSession();
+        long now = now();
+        SeriesHandle handle = session.resolve("mem server=1");
+        Assert.assertEquals("mem server=1", handle.getSeries());
+        Assert.assertEquals(handle, session.resolve("mem server=1"));
+        List<SeriesHandle> handles = session.resolveAll(Arrays.asList("mem server=1", "mem server=2"));
+        Assert.assertEquals(2, handles.size());
+        Assert.assertEquals(handle, handles.get(0));
+        session.add(now, handle, 10);
+        session.add(now, handles.get(1), 20);
+        SelectCriteria criteria = SelectCriteria.builder()
+                                        .select("mem")
+                                        .from(now)
+                                        .to(now + 1)
+                                    .build();
+        int counter = 0;
+        try (SimpleCursor cursor = session.query(criteria)) {
+            for (String next : cursor) {
+                Assert.assertNotNull(next);
+                counter += 1;
+            }
+        }
+        Assert.assertEquals(2, counter);
+        session.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t04_insertRing() {
+        Database db = createTempDb();
+        db.open();
+        Session session = db.createSession();
+        long now = now();
+        SeriesHandle handle = session.resolve("mem server=1");
+        SampleRing ring = new SampleRing(4);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(ring.offer(now + i, handle, i));
+        }
+        Assert.assertFalse(ring.offer(now + 4, handle, 4));
+        Assert.assertEquals(0, ring.remainingCapacity());
+        Assert.assertEquals(4, session.drain(ring));
+        Assert.assertTrue(ring.isEmpty());
+        Assert.assertTrue(ring.offer(now + 4, handle, 4));
+        Assert.assertEquals(1, session.drain(ring));
+        Assert.assertEquals(0, ring.getFailed());
+        AggregateCriteria criteria = AggregateCriteria.builder()
+                                        .aggregate("mem", AggregateFunction.count)
+                                        .from(now)
+                                        .to(now + 5)
+                                    .build();
+        try (AggregateCursor cursor = session.query(criteria)) {
+            Assert.assertTrue(cursor.hasNext());
+            cursor.next();
+            Assert.assertEquals(5, cursor.getValue(), 0);
+        }
+        session.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t05_insertCompound() {
+        Database db = createTempDb();
+        db.open();
+        Session session = db.createSession();
+        long now = now();
+        session.add(now, "cpu.user|cpu.sys host=a", new double[] { 10, 20 });
+        JoinCriteria criteria = JoinCriteria.builder()
+                                        .join(Arrays.asList("cpu.user", "cpu.sys"))
+                                        .from(now)
+                                        .to(now + 1)
+                                    .build();
+        try (CompoundCursor cursor = session.query(criteria)) {
+            Assert.assertTrue(cursor.hasNext());
+            Assert.assertEquals("cpu.user|cpu.sys host=a", cursor.next());
+            Assert.assertEquals(10, cursor.getValues()[0], 0);
+            Assert.assertEquals(20, cursor.getValues()[1], 0);
+        }
+        session.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t06_insertAsync() throws Exception {
+        Database db = createTempDb();
+        db.open();
+        long now = now();
+        try (AsyncWriter writer = db.createAsyncWriter(2, 1024, 64, OverflowPolicy.block)) {
+            for (int i = 0; i < 1000; i++) {
+                writer.add(now + i, "mem server=" + (i % 4), i);
+            }
+            writer.flush().get();
+            Assert.assertEquals(1000, writer.getWritten());
+            Assert.assertEquals(0, writer.getFailed());
+            Assert.assertEquals(0, writer.getDropped());
+            Assert.assertEquals(0, writer.getQueueDepth());
+        }
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t07_lateWrite() {
+        Database db = createTempDb();
+        db.open();
+        Session session = db.createSession();
+        session.setRetryPolicy(RetryPolicy.builder()
+                                    .spins(10)
+                                    .yields(10)
+                                    .park(Duration.ofNanos(1000), Duration.ofMillis(10))
+                                    .maxWait(Duration.ofSeconds(10))
+                                .build());
+        long now = now();
+        session.add(now, "mem server=1", 10);
+        try {
+            session.add(now - 1_000_000_000L, "mem server=1", 20);
+            Assert.fail();
+        } catch (LateWriteException e) {
+            Assert.assertEquals(Status.AKU_ELATE_WRITE, e.getStatus());
+            Assert.assertEquals("mem server=1", e.getSeries());
+            Assert.assertEquals(now - 1_000_000_000L, e.getTimestamp());
+        }
+        // only AKU_EBUSY is retried, a late write fails on the first attempt
+        Assert.assertEquals(0, session.getRetryCount());
+        Assert.assertEquals(0, session.getBusyWaitNanos());
+        session.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t08_reorder() {
+        Database db = createTempDb();
+        db.open();
+        Session session = db.createSession();
+        long now = now();
+        List<Double> late = new ArrayList<>();
+        try (ReorderBuffer buffer = new ReorderBuffer(session, Duration.ofSeconds(10), 1000,
+                                                        (timestamp, series, value) -> late.add(value))) {
+            buffer.add(now + 2, "mem server=1", 2);
+            buffer.add(now + 1, "mem server=1", 1);
+            buffer.add(now + 3, "mem server=1", 3);
+            Assert.assertEquals(3, buffer.size());
+            buffer.flush();
+            Assert.assertEquals(0, buffer.size());
+            buffer.add(now, "mem server=1", 0);
+            Assert.assertEquals(1, buffer.getLateCount());
+            Assert.assertEquals(0, late.get(0), 0);
+            try {
+                buffer.add(now + 5, "invalid", 5);
+                Assert.fail("series is malformed");
+            } catch (InvalidSeriesException e) {
+                Assert.assertEquals("invalid", e.getSeries());
+            }
+            Assert.assertEquals(0, buffer.size());
+        }
+        try (ReorderBuffer buffer = new ReorderBuffer(session, Duration.ofNanos(10), 2)) {
+            buffer.add(now, "cpu server=1", 1);
+            // the newest sample of all series releases the idle series
+            buffer.add(now + 20, "cpu server=2", 2);
+            Assert.assertEquals(1, buffer.size());
+            buffer.add(now + 15, "cpu server=3", 3);
+            // over the cap, only the oldest sample is written
+            buffer.add(now + 16, "cpu server=3", 4);
+            Assert.assertEquals(2, buffer.size());
+        }
+        SelectCriteria criteria = SelectCriteria.builder()
+                                        .select("mem")
+                                        .from(now)
+                                        .to(now + 4)
+                                    .build();
+        double expected = 1;
+        try (SimpleCursor cursor = session.query(criteria)) {
+            while (cursor.hasNext()) {
+                cursor.next();
+                Assert.assertEquals(expected, cursor.getValue(), 0);
+                expected += 1;
+            }
+        }
+        Assert.assertEquals(4, expected, 0);
+        session.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t09_bulkLoad() throws Exception {
+        Database db = createTempDb();
+        db.open();
+        long now = now();
+        Path input = Files.createTempFile("tsdb4j", ".csv");
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            csv.append("mem server=").append(i % 3).append(',').append(now + i).append(',').append(i).append('\n');
+        }
+        Files.write(input, csv.toString().getBytes(StandardCharsets.UTF_8));
+        Path workDir = createTempPath();
+        BulkLoader loader = new BulkLoader(db, workDir, 2, 16);
+        loader.load(Arrays.asList(input), BulkLoader.Format.csv);
+        Assert.assertEquals(100, loader.getRead());
+        Assert.assertEquals(100, loader.getWritten());
+        Assert.assertEquals(0, loader.getFailed());
+        Assert.assertTrue(loader.getThroughput() > 0);
+        // one sample per run, more runs than the merge fan-in
+        csv.setLength(0);
+        char[] zeros = new char[300];
+        Arrays.fill(zeros, '0');
+        for (int i = 0; i < 300; i++) {
+            csv.append("cpu server=").append(i % 3).append(',').append(now + i).append(',').append(i).append('.').append(zeros).append('\n');
+        }
+        Files.write(input, csv.toString().getBytes(StandardCharsets.UTF_8));
+        loader = new BulkLoader(db, workDir, 2, 1);
+        loader.load(Arrays.asList(input), BulkLoader.Format.csv);
+        Assert.assertEquals(300, loader.getRead());
+        Assert.assertEquals(300, loader.getWritten());
+        SelectCriteria criteria = SelectCriteria.builder()
+                                        .select("cpu")
+                                        .from(now)
+                                        .to(now + 300)
+                                        .orderBy(OrderBy.time)
+                                    .build();
+        try (Session session = db.createSession(); SimpleCursor cursor = session.query(criteria)) {
+            for (int i = 0; i < 300; i++) {
+                Assert.assertTrue(cursor.hasNext());
+                cursor.next();
+                Assert.assertEquals(i, cursor.getValue(), 0);
+            }
+        }
+        deleteIfExists(input);
+        deleteIfExists(workDir);
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t10_insertSeriesKey() {
+        Database db = createTempDb();
+        db.open();
+        Session session = db.createSession();
+        SeriesKey key = SeriesKey.builder("cpu.usage")
+                                    .tag("host", "a")
+                                    .tag("dc", "tallinn")
+                                .build();
+        Assert.assertEquals("cpu.usage dc=tallinn host=a", key.getSeries());
+        Assert.assertSame(key, SeriesKey.builder("cpu.usage").tag("dc", "tallinn").tag("host", "a").build());
+        try {
+            SeriesKey.builder("cpu.usage").tag("host", "a").tag("host", "b").build();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("duplicate tag name: [host]", e.getMessage());
+        }
+        session.add(now(), key, 10);
+        session.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
 }
@@ -0,0 +1,667 @@
+package io.webfolder.tsdb4j;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SessionPoolTest extends AbstractTest {
+
+    @Test
+    public void t01_borrow() throws InterruptedException {
+        Database db = createTempDb();
+        db.open();
+        SessionPool pool = db.createSessionPool(2);
+        Session s1 = pool.borrow();
+        Session s2 = pool.borrow();
+        Assert.assertNotSame(s1, s2);
+        Assert.assertEquals(2, pool.getActiveSessions());
+        Assert.assertNull(pool.borrow(10, TimeUnit.MILLISECONDS));
+        s1.close();
+        Assert.assertEquals(1, pool.getActiveSessions());
+        try (Session s3 = pool.borrow()) {
+            Assert.assertSame(s1, s3);
+        }
+        s2.close();
+        Assert.assertEquals(0, pool.getActiveSessions());
+        Assert.assertEquals(2, pool.getCreatedSessions());
+        Assert.assertEquals(3, pool.getBorrowCount());
+        Session current = pool.current();
+        Assert.assertSame(current, pool.current());
+        pool.releaseCurrent();
+        Assert.assertEquals(0, pool.getActiveSessions());
+        // the bound session is returned by another thread and lent again
+        current = pool.current();
+        Thread closer = new Thread(current::close);
+        closer.start();
+        closer.join();
+        Session other = pool.borrow();
+        Session rebound = pool.current();
+        Assert.assertNotSame(other, rebound);
+        Assert.assertEquals(2, pool.getActiveSessions());
+        pool.releaseCurrent();
+        other.close();
+        Assert.assertEquals(0, pool.getActiveSessions());
+        pool.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t02_routedWrite() {
+        Database db = createTempDb();
+        db.open();
+        long now = now();
+        SessionPool pool = db.createSessionPool(4);
+        for (int i = 0; i < 100; i++) {
+            pool.add(now + i, "mem server=" + (i % 8), i);
+        }
+        Assert.assertEquals(0, pool.getActiveSessions());
+        pool.close();
+        SessionPool single = db.createSessionPool(1);
+        Session borrowed = single.borrow();
+        // the routed session is borrowed by the calling thread
+        single.add(now + 100, "mem server=1", 100);
+        borrowed.close();
+        borrowed.close();
+        Assert.assertEquals(0, single.getActiveSessions());
+        Session again = single.borrow(10, TimeUnit.MILLISECONDS);
+        Assert.assertSame(borrowed, again);
+        Assert.assertNull(single.borrow(10, TimeUnit.MILLISECONDS));
+        single.close();
+        // borrowed sessions are destroyed when they are returned to a closed pool
+        again.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t03_stream() {
+        Database db = createTempDb();
+        db.open();
+        long now = now();
+        try (Session session = db.createSession()) {
+            for (int i = 0; i < 100_000; i++) {
+                session.add(now + i, "mem server=" + (i % 4), i);
+            }
+        }
+        SelectCriteria criteria = SelectCriteria.builder()
+                                        .select("mem")
+                                        .from(now)
+                                        .to(now + 100_000)
+                                        .orderBy(OrderBy.time)
+                                    .build();
+        try (Stream<Sample> stream = db.stream(criteria, 4)) {
+            List<Sample> samples = stream.collect(Collectors.toList());
+            Assert.assertEquals(100_000, samples.size());
+            for (int i = 0; i < samples.size(); i++) {
+                Assert.assertEquals(now + i, samples.get(i).getTimestamp());
+                Assert.assertEquals(i, samples.get(i).getValue(), 0);
+            }
+        }
+        SessionPool pool = db.createSessionPool(4);
+        try (Stream<Sample> stream = pool.stream(criteria, 4)) {
+            Assert.assertEquals(4, stream.map(Sample::getSeries).distinct().count());
+        }
+        Assert.assertEquals(0, pool.getActiveSessions());
+        try (Stream<Sample> stream = pool.stream(criteria, 4)) {
+            Assert.assertTrue(stream.findFirst().isPresent());
+        }
+        Assert.assertEquals(0, pool.getActiveSessions());
+        pool.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t04_publisher() throws Exception {
+        Database db = createTempDb();
+        db.open();
+        long now = now();
+        try (Session session = db.createSession()) {
+            for (int i = 0; i < 10_000; i++) {
+                session.add(now + i, "mem server=1", i);
+            }
+        }
+        SelectCriteria criteria = SelectCriteria.builder()
+                                        .select("mem")
+                                        .from(now)
+                                        .to(now + 10_000)
+                                    .build();
+        SessionPool pool = db.createSessionPool(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger counter = new AtomicInteger();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        pool.publisher(criteria, executor).subscribe(new QuerySubscriber<Row>() {
+
+            private QuerySubscription subscription;
+
+            private int received;
+
+            @Override
+            public void onSubscribe(QuerySubscription subscription) {
+                this.subscription = subscription;
+                subscription.request(100);
+            }
+
+            @Override
+            public void onNext(Row row) {
+                Assert.assertEquals(counter.getAndIncrement(), row.getValue(), 0);
+                received += 1;
+                if (received == 100) {
+                    received = 0;
+                    subscription.request(100);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                error.set(throwable);
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        Assert.assertNull(error.get());
+        Assert.assertEquals(10_000, counter.get());
+        Assert.assertEquals(0, pool.getActiveSessions());
+        executor.shutdown();
+        pool.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t05_queryExecutor() {
+        Database db = createTempDb();
+        db.open();
+        long now = now();
+        try (Session session = db.createSession()) {
+            for (int i = 0; i < 1_000; i++) {
+                session.add(now + i, "mem server=1", i);
+                session.add(now + i, "cpu server=1", 2 * i);
+            }
+        }
+        AggregateCriteria mem = AggregateCriteria.builder()
+                                        .aggregate("mem", AggregateFunction.sum)
+                                        .from(now)
+                                        .to(now + 1_000)
+                                    .build();
+        AggregateCriteria cpu = AggregateCriteria.builder()
+                                        .aggregate("cpu", AggregateFunction.sum)
+                                        .from(now)
+                                        .to(now + 1_000)
+                                    .build();
+        AggregateCriteria memCopy = AggregateCriteria.builder()
+                                        .aggregate("mem", AggregateFunction.sum)
+                                        .from(now)
+                                        .to(now + 1_000)
+                                    .build();
+        SessionPool pool = db.createSessionPool(2);
+        try (QueryExecutor executor = new QueryExecutor(pool, 2)) {
+            List<Criteria> batch = Arrays.asList(mem, cpu, memCopy);
+            List<CompletableFuture<QueryResult>> futures = executor.submitAll(batch);
+            Assert.assertSame(futures.get(0), futures.get(2));
+            List<QueryResult> results = executor.executeAll(batch);
+            Assert.assertEquals(3, results.size());
+            Assert.assertEquals(499_500D, results.get(0).getRows().get(0).getValue(), 0);
+            Assert.assertEquals(999_000D, results.get(1).getRows().get(0).getValue(), 0);
+            Assert.assertSame(results.get(0), results.get(2));
+            Assert.assertTrue(results.get(1).getExecutionNanos() > 0);
+        }
+        Assert.assertEquals(0, pool.getActiveSessions());
+        pool.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t06_parallelAggregate() {
+        Database db = createTempDb();
+        db.open();
+        long now = now();
+        try (Session session = db.createSession()) {
+            for (int i = 0; i < 10_000; i++) {
+                session.add(now + i, "mem server=1", (i * 7) % 1_000);
+                session.add(now + i, "mem server=2", (i * 13) % 1_000);
+            }
+        }
+        SessionPool pool = db.createSessionPool(4);
+        try (QueryExecutor executor = new QueryExecutor(pool, 4)) {
+            for (AggregateFunction function : AggregateFunction.values()) {
+                AggregateCriteria criteria = AggregateCriteria.builder()
+                                                .aggregate("mem", function)
+                                                .from(now)
+                                                .to(now + 10_000)
+                                            .build();
+                List<Row> expected = executor.executeAll(Arrays.asList(criteria)).get(0).getRows();
+                List<Row> actual = executor.executeParallel(criteria, 4).getRows();
+                Assert.assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    Assert.assertEquals(expected.get(i).getSeries(), actual.get(i).getSeries());
+                    Assert.assertEquals(function.name(), expected.get(i).getValue(), actual.get(i).getValue(), 1e-6);
+                }
+            }
+            GroupAggregateCriteria criteria = GroupAggregateCriteria.builder()
+                                                .groupAggregate(Arrays.asList("mem"), Duration.ofNanos(1_000), EnumSet.allOf(AggregateFunction.class))
+                                                .from(now)
+                                                .to(now + 10_000)
+                                            .build();
+            List<Row> expected = executor.executeAll(Arrays.asList(criteria)).get(0).getRows();
+            List<Row> actual = executor.executeParallel(criteria, 3).getRows();
+            Assert.assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                Assert.assertEquals(expected.get(i).getSeries(), actual.get(i).getSeries());
+                Assert.assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+                Assert.assertArrayEquals(expected.get(i).getValues(), actual.get(i).getValues(), 1e-6);
+            }
+        }
+        pool.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t07_groupAggregateCache() {
+        Database db = createTempDb();
+        db.open();
+        long now = now() - TimeUnit.HOURS.toNanos(1);
+        try (Session session = db.createSession()) {
+            for (int i = 0; i < 10_000; i++) {
+                session.add(now + i, "mem server=1", i % 100);
+            }
+        }
+        SessionPool pool = db.createSessionPool(4);
+        try (QueryExecutor executor = new QueryExecutor(pool, 4)) {
+            GroupAggregateCache cache = new GroupAggregateCache(executor, 1024 * 1024, Duration.ZERO);
+            db.addWriteListener(cache);
+            GroupAggregateCriteria criteria = GroupAggregateCriteria.builder()
+                                                .groupAggregate(Arrays.asList("mem"), Duration.ofNanos(1_000), EnumSet.of(AggregateFunction.count, AggregateFunction.sum))
+                                                .from(now)
+                                                .to(now + 8_000)
+                                            .build();
+            List<Row> expected = executor.executeAll(Arrays.asList(criteria)).get(0).getRows();
+            Assert.assertEquals(8, expected.size());
+            Assert.assertEquals(8, cache.execute(criteria).getRows().size());
+            Assert.assertEquals(1, cache.getMissCount());
+            Assert.assertEquals(1, cache.size());
+            Assert.assertTrue(cache.getMemoryUsage() > 0);
+
+            // sliding window, only the newest bins are queried
+            GroupAggregateCriteria window = GroupAggregateCriteria.builder()
+                                                .groupAggregate(Arrays.asList("mem"), Duration.ofNanos(1_000), EnumSet.of(AggregateFunction.count, AggregateFunction.sum))
+                                                .from(now + 2_000)
+                                                .to(now + 10_000)
+                                            .build();
+            expected = executor.executeAll(Arrays.asList(window)).get(0).getRows();
+            List<Row> actual = cache.execute(window).getRows();
+            Assert.assertEquals(1, cache.getHitCount());
+            Assert.assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                Assert.assertEquals(expected.get(i).getSeries(), actual.get(i).getSeries());
+                Assert.assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+                Assert.assertArrayEquals(expected.get(i).getValues(), actual.get(i).getValues(), 1e-6);
+            }
+
+            // late write invalidates the bins from its own
+            try (Session session = db.createSession()) {
+                session.add(now + 5_500, "mem server=1", 1_000);
+            }
+            expected = executor.executeAll(Arrays.asList(window)).get(0).getRows();
+            actual = cache.execute(window).getRows();
+            Assert.assertEquals(2, cache.getHitCount());
+            Assert.assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                Assert.assertArrayEquals(expected.get(i).getValues(), actual.get(i).getValues(), 1e-6);
+            }
+
+            cache.invalidateAll();
+            Assert.assertEquals(0, cache.size());
+            Assert.assertEquals(0, cache.getMemoryUsage());
+            db.removeWriteListener(cache);
+        }
+        pool.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t08_rollup() {
+        Database db = createTempDb();
+        db.open();
+        db.addRollup(RollupRule.builder()
+                        .metric("cpu.*")
+                        .step(Duration.ofNanos(1_000))
+                        .functions(EnumSet.of(AggregateFunction.count, AggregateFunction.max, AggregateFunction.mean, AggregateFunction.last))
+                    .build());
+        long now = (now() - TimeUnit.HOURS.toNanos(1)) / 1_000 * 1_000;
+        try (Session session = db.createSession()) {
+            for (int i = 0; i < 10_000; i++) {
+                session.add(now + i, "cpu.usage host=a", (i * 7) % 100);
+                session.add(now + i, "cpu.usage host=b", (i * 13) % 100);
+            }
+        }
+        db.flushRollups();
+        Assert.assertEquals(0, db.getRollupLateWrites());
+        GroupAggregateCriteria criteria = GroupAggregateCriteria.builder()
+                                            .groupAggregate(Arrays.asList("cpu.usage"), Duration.ofNanos(2_000), EnumSet.of(AggregateFunction.count, AggregateFunction.max, AggregateFunction.mean))
+                                            .from(now)
+                                            .to(now + 10_000)
+                                        .build();
+        Map<String, double[]> expected = new HashMap<>();
+        try (Session session = db.createSession()) {
+            GroupAggregateCursor cursor = session.query(criteria);
+            while (cursor.hasNext()) {
+                String series = cursor.next();
+                if (series != null) {
+                    expected.put(series + "@" + cursor.getTimestamp(), cursor.getValues());
+                }
+            }
+            cursor.close();
+        }
+        Assert.assertEquals(10, expected.size());
+        SessionPool pool = db.createSessionPool(2);
+        try (QueryExecutor executor = new QueryExecutor(pool, 2)) {
+            List<Row> actual = executor.executeAll(Arrays.asList(criteria)).get(0).getRows();
+            Assert.assertEquals(1, executor.getRollupQueryCount());
+            Assert.assertEquals(expected.size(), actual.size());
+            for (Row row : actual) {
+                double[] values = expected.get(row.getSeries() + "@" + row.getTimestamp());
+                Assert.assertNotNull(values);
+                Assert.assertArrayEquals(values, row.getValues(), 1e-6);
+            }
+        }
+        pool.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t09_publisherCancel() throws Exception {
+        Database db = createTempDb();
+        db.open();
+        long now = now();
+        try (Session session = db.createSession()) {
+            for (int i = 0; i < 1_000; i++) {
+                session.add(now + i, "mem server=1", i);
+            }
+        }
+        SelectCriteria select = SelectCriteria.builder()
+                                        .select("mem")
+                                        .from(now)
+                                        .to(now + 1_000)
+                                    .build();
+        SessionPool pool = db.createSessionPool(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        // cancel closes the cursor and returns the session
+        RowCollector cancelled = new RowCollector(10, false);
+        pool.publisher(select, executor).subscribe(cancelled);
+        Assert.assertTrue(cancelled.stopped.await(30, TimeUnit.SECONDS));
+        awaitIdle(pool);
+        Assert.assertEquals(10, cancelled.rows.size());
+        Assert.assertNull(cancelled.error.get());
+        Assert.assertEquals(1, cancelled.done.getCount());
+
+        // an exception of onNext cancels the subscription, onError is not called
+        RowCollector failed = new RowCollector(5, true);
+        pool.publisher(select, executor).subscribe(failed);
+        Assert.assertTrue(failed.stopped.await(30, TimeUnit.SECONDS));
+        awaitIdle(pool);
+        Assert.assertEquals(5, failed.rows.size());
+        Assert.assertNull(failed.error.get());
+        Assert.assertEquals(1, failed.done.getCount());
+
+        AggregateCriteria aggregate = AggregateCriteria.builder()
+                                        .aggregate("mem", AggregateFunction.sum)
+                                        .from(now)
+                                        .to(now + 1_000)
+                                    .build();
+        RowCollector completed = new RowCollector(-1, false);
+        pool.publisher(aggregate, executor).subscribe(completed);
+        Assert.assertTrue(completed.done.await(30, TimeUnit.SECONDS));
+        Assert.assertNull(completed.error.get());
+        Assert.assertEquals(1, completed.rows.size());
+        Assert.assertEquals(499_500, completed.rows.get(0).getValue(), 0);
+        awaitIdle(pool);
+
+        executor.shutdown();
+        pool.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    @Test
+    public void t10_rollupCoverage() {
+        Database db = createTempDb();
+        db.open();
+        long now = (now() - TimeUnit.HOURS.toNanos(1)) / 1_000 * 1_000;
+        try (Session session = db.createSession()) {
+            // historical samples, written before the rule is declared
+            for (int i = 0; i < 5_500; i++) {
+                session.add(now + i, "cpu.load host=a", 1);
+            }
+        }
+        RollupRule rule = RollupRule.builder()
+                            .metric("cpu.load")
+                            .step(Duration.ofNanos(1_000))
+                            .functions(EnumSet.of(AggregateFunction.count, AggregateFunction.sum))
+                        .build();
+        db.addRollup(rule);
+        try (Session session = db.createSession()) {
+            for (int i = 5_500; i < 8_500; i++) {
+                session.add(now + i, "cpu.load host=a", 2);
+            }
+        }
+        db.flushRollups();
+        try (Session session = db.createSession()) {
+            // late write into the stored bin [8_000, 9_000)
+            session.add(now + 8_600, "cpu.load host=a", 3);
+            for (int i = 9_000; i < 11_500; i++) {
+                session.add(now + i, "cpu.load host=a", 4);
+            }
+        }
+        db.flushRollups();
+        Assert.assertEquals(1, db.getRollupLateWrites());
+        GroupAggregateCriteria criteria = GroupAggregateCriteria.builder()
+                                            .groupAggregate(Arrays.asList("cpu.load"), Duration.ofNanos(2_000), EnumSet.of(AggregateFunction.count, AggregateFunction.sum))
+                                            .from(now)
+                                            .to(now + 12_000)
+                                        .build();
+        SessionPool pool = db.createSessionPool(2);
+        assertRollup(db, pool, criteria);
+        pool.close();
+        db.close();
+
+        Database reopened = new Database(db.getPath(), "test");
+        reopened.open();
+        reopened.addRollup(rule);
+        try (Session session = reopened.createSession()) {
+            // the bin [11_000, 12_000) is stored before the database is closed
+            for (int i = 11_600; i < 14_000; i++) {
+                session.add(now + i, "cpu.load host=a", 5);
+            }
+        }
+        reopened.flushRollups();
+        SelectCriteria stored = SelectCriteria.builder()
+                                    .select(rule.getRollupMetric("cpu.load", AggregateFunction.count))
+                                    .from(now + 11_000)
+                                    .to(now + 12_000)
+                                .build();
+        try (Session session = reopened.createSession(); SimpleCursor cursor = session.query(stored)) {
+            Assert.assertTrue(cursor.hasNext());
+            cursor.next();
+            Assert.assertEquals(500, cursor.getValue(), 0);
+            Assert.assertFalse(cursor.hasNext());
+        }
+        pool = reopened.createSessionPool(2);
+        assertRollup(reopened, pool, criteria.with(now, now + 14_000, criteria.getFunctions()));
+        pool.close();
+        reopened.close();
+        reopened.delete();
+        deleteIfExists(reopened.getPath());
+    }
+
+    @Test
+    public void t11_crossRoutedWrite() throws Exception {
+        Database db = createTempDb();
+        db.open();
+        long now = now();
+        SessionPool pool = db.createSessionPool(2);
+        CountDownLatch borrowed = new CountDownLatch(2);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] writers = new Thread[2];
+        for (int t = 0; t < writers.length; t++) {
+            long start = now + t * 1_000;
+            writers[t] = new Thread(() -> {
+                try (Session session = pool.borrow()) {
+                    borrowed.countDown();
+                    borrowed.await();
+                    // the series are routed to both sessions, one of them is held by the other writer
+                    for (int i = 0; i < 200; i++) {
+                        pool.add(start + i, "mem server=" + (i % 8), i);
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread next : writers) {
+            next.join(TimeUnit.SECONDS.toMillis(30));
+            Assert.assertFalse(next.isAlive());
+        }
+        Assert.assertNull(error.get());
+        Assert.assertEquals(0, pool.getActiveSessions());
+        SelectCriteria criteria = SelectCriteria.builder()
+                                    .select("mem")
+                                    .from(now)
+                                    .to(now + 2_000)
+                                .build();
+        int rows = 0;
+        try (Session session = db.createSession(); SimpleCursor cursor = session.query(criteria)) {
+            while (cursor.hasNext()) {
+                cursor.next();
+                rows += 1;
+            }
+        }
+        Assert.assertEquals(400, rows);
+        pool.close();
+        db.close();
+        db.delete();
+        deleteIfExists(db.getPath());
+    }
+
+    private static void assertRollup(Database db, SessionPool pool, GroupAggregateCriteria criteria) {
+        Map<String, double[]> expected = new HashMap<>();
+        try (Session session = db.createSession()) {
+            GroupAggregateCursor cursor = session.query(criteria);
+            while (cursor.hasNext()) {
+                String series = cursor.next();
+                if (series != null) {
+                    expected.put(series + "@" + cursor.getTimestamp(), cursor.getValues());
+                }
+            }
+            cursor.close();
+        }
+        try (QueryExecutor executor = new QueryExecutor(pool, 2)) {
+            List<Row> actual = executor.executeAll(Arrays.asList(criteria)).get(0).getRows();
+            Assert.assertEquals(1, executor.getRollupQueryCount());
+            Assert.assertEquals(expected.size(), actual.size());
+            for (Row row : actual) {
+                double[] values = expected.get(row.getSeries() + "@" + row.getTimestamp());
+                Assert.assertNotNull(values);
+                Assert.assertArrayEquals(values, row.getValues(), 1e-6);
+            }
+        }
+    }
+
+    private static void awaitIdle(SessionPool pool) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (pool.getActiveSessions() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, pool.getActiveSessions());
+    }
+
+    private static class RowCollector implements QuerySubscriber<Row> {
+
+        final List<Row> rows = new CopyOnWriteArrayList<>();
+
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        final CountDownLatch stopped = new CountDownLatch(1);
+
+        // number of rows before cancel or failure, -1 reads all rows
+        private final int limit;
+
+        private final boolean fail;
+
+        private QuerySubscription subscription;
+
+        RowCollector(int limit, boolean fail) {
+            this.limit = limit;
+            this.fail = fail;
+        }
+
+        @Override
+        public void onSubscribe(QuerySubscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(Row row) {
+            rows.add(row);
+            if (rows.size() == limit) {
+                stopped.countDown();
+                if (fail) {
+                    throw new IllegalStateException("subscriber failed");
+                }
+                subscription.cancel();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error.set(throwable);
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+}
@@ -9,7 +9,8 @@ import org.junit.runners.Suite.SuiteClasses;
     CreateDeleteTest.class,
     InsertTest.class,
     MetaDataTest.class,
-    CriteriaTest.class
+    CriteriaTest.class,
+    SessionPoolTest.class
 })
 public class TestAll {
 
@@ -0,0 +1,409 @@
+package io.webfolder.tsdb4j.arrow;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.copyOf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeStampNanoVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorLoader;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.VectorUnloader;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider;
+import org.apache.arrow.vector.dictionary.DictionaryProvider.MapDictionaryProvider;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+import io.webfolder.tsdb4j.BaseCursor;
+import io.webfolder.tsdb4j.ParsedSeries;
+import io.webfolder.tsdb4j.RowBatch;
+import io.webfolder.tsdb4j.SeriesParser;
+
+/**
+ * Drains a cursor into Arrow {@link VectorSchemaRoot} batches.
+ *
+ * The schema has a <code>timestamp</code> column, dictionary encoded <code>series</code>,
+ * <code>metric</code> and tag columns and one <code>float8</code> column per value. Value columns
+ * are named after the aggregate functions of aggregate and group-aggregate queries, after the
+ * metrics of join queries and <code>value</code> otherwise. The value and tag columns are taken
+ * from the first batch unless the tags are given, a series with a tag that is not in the
+ * first batch then fails the export with an {@link IllegalStateException}.
+ *
+ * Rows are read with {@link BaseCursor#nextBatch(RowBatch)}, a single native call per batch, and
+ * copied from the {@link RowBatch} arrays into the vectors. The native read buffer holds samples
+ * with series ids that are resolved in Java, so the vectors are not filled by the native code.
+ * The series are resolved once per cursor series id.
+ *
+ * The cursor is not closed by the exporter. This class is not thread-safe.
+ */
+public class ArrowExporter implements AutoCloseable {
+
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    private static final ArrowType.Int INDEX_TYPE = new ArrowType.Int(32, true);
+
+    private final BaseCursor cursor;
+
+    private final RowBatch batch;
+
+    private final List<String> tags;
+
+    private final boolean inferredTags;
+
+    private final List<String> valueNames;
+
+    private final VectorSchemaRoot root;
+
+    private final MapDictionaryProvider provider = new MapDictionaryProvider();
+
+    private final VarCharVector seriesDictionary;
+
+    private final VarCharVector metricDictionary;
+
+    private final VarCharVector[] tagDictionaries;
+
+    private final Map<String, Integer> metricIndexes = new HashMap<>();
+
+    private final List<Map<String, Integer>> tagIndexes = new ArrayList<>();
+
+    // dictionary indexes of each cursor series id, -1 if the series has no such tag
+    private int[] seriesMetrics = new int[64];
+
+    private int[][] seriesTags = new int[64][];
+
+    private int seriesCount;
+
+    private boolean pending;
+
+    private long rowCount;
+
+    public ArrowExporter(BaseCursor cursor, BufferAllocator allocator) {
+        this(cursor, allocator, DEFAULT_BATCH_SIZE, null);
+    }
+
+    /**
+     * @param batchSize maximum number of rows of a batch
+     * @param tags tag columns, <code>null</code> to take them from the first batch
+     */
+    public ArrowExporter(BaseCursor cursor, BufferAllocator allocator, int batchSize, List<String> tags) {
+        if (cursor == null) {
+            throw new IllegalArgumentException("cursor");
+        }
+        if (allocator == null) {
+            throw new IllegalArgumentException("allocator");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("[batchSize] must be greater or equal than: [1]");
+        }
+        this.cursor = cursor;
+        // group-aggregate rows have up to one value per aggregate function
+        this.batch = new RowBatch(batchSize, batchSize * 16);
+        this.pending = cursor.nextBatch(batch) > 0;
+        this.inferredTags = tags == null;
+        this.tags = tags != null ? new ArrayList<>(tags) : firstBatchTags();
+        this.valueNames = firstBatchValueNames();
+
+        List<Field> fields = new ArrayList<>();
+        fields.add(Field.nullable("timestamp", new ArrowType.Timestamp(TimeUnit.NANOSECOND, null)));
+        DictionaryEncoding seriesEncoding = new DictionaryEncoding(0, false, INDEX_TYPE);
+        DictionaryEncoding metricEncoding = new DictionaryEncoding(1, false, INDEX_TYPE);
+        fields.add(new Field("series", new FieldType(false, INDEX_TYPE, seriesEncoding), null));
+        fields.add(new Field("metric", new FieldType(false, INDEX_TYPE, metricEncoding), null));
+        VarCharVector series = null;
+        VarCharVector metric = null;
+        VarCharVector[] tagVectors = new VarCharVector[this.tags.size()];
+        try {
+            series = dictionary("series", seriesEncoding, allocator);
+            metric = dictionary("metric", metricEncoding, allocator);
+            for (int i = 0; i < this.tags.size(); i++) {
+                DictionaryEncoding encoding = new DictionaryEncoding(2 + i, false, INDEX_TYPE);
+                fields.add(new Field(this.tags.get(i), new FieldType(true, INDEX_TYPE, encoding), null));
+                tagVectors[i] = dictionary(this.tags.get(i), encoding, allocator);
+                tagIndexes.add(new HashMap<>());
+            }
+            for (String next : valueNames) {
+                fields.add(Field.nullable(next, new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE)));
+            }
+            this.root = VectorSchemaRoot.create(new Schema(fields), allocator);
+        } catch (RuntimeException | Error e) {
+            // the exporter is not returned to the caller, release what is allocated so far
+            close(series);
+            close(metric);
+            for (VarCharVector next : tagVectors) {
+                close(next);
+            }
+            throw e;
+        }
+        this.seriesDictionary = series;
+        this.metricDictionary = metric;
+        this.tagDictionaries = tagVectors;
+    }
+
+    /**
+     * Fills the root with the next rows of the cursor.
+     *
+     * @return <code>false</code> if the cursor is exhausted
+     */
+    public boolean loadNextBatch() {
+        if (!pending && cursor.nextBatch(batch) == 0) {
+            root.setRowCount(0);
+            return false;
+        }
+        pending = false;
+        int size = batch.size();
+        long[] timestamps = batch.getTimestamps();
+        int[] seriesIds = batch.getSeriesIds();
+        double[] values = batch.getValues();
+        int[] offsets = batch.getOffsets();
+
+        root.allocateNew();
+        TimeStampNanoVector timestampVector = (TimeStampNanoVector) root.getVector(0);
+        IntVector seriesVector = (IntVector) root.getVector(1);
+        IntVector metricVector = (IntVector) root.getVector(2);
+        for (int i = 0; i < size; i++) {
+            int seriesId = seriesIds[i];
+            resolve(seriesId);
+            timestampVector.setSafe(i, timestamps[i]);
+            seriesVector.setSafe(i, seriesId);
+            metricVector.setSafe(i, seriesMetrics[seriesId]);
+        }
+        for (int t = 0; t < tagDictionaries.length; t++) {
+            IntVector tagVector = (IntVector) root.getVector(3 + t);
+            for (int i = 0; i < size; i++) {
+                int index = seriesTags[seriesIds[i]][t];
+                if (index < 0) {
+                    tagVector.setNull(i);
+                } else {
+                    tagVector.setSafe(i, index);
+                }
+            }
+        }
+        for (int v = 0; v < valueNames.size(); v++) {
+            Float8Vector valueVector = (Float8Vector) root.getVector(3 + tagDictionaries.length + v);
+            for (int i = 0; i < size; i++) {
+                int offset = offsets[i] + v;
+                if (offset < offsets[i + 1]) {
+                    valueVector.setSafe(i, values[offset]);
+                } else {
+                    valueVector.setNull(i);
+                }
+            }
+        }
+        root.setRowCount(size);
+        rowCount += size;
+        return true;
+    }
+
+    /**
+     * Writes the remaining rows as an Arrow IPC stream, the dictionaries which grow are written
+     * again as replacement dictionaries. The stream is closed.
+     *
+     * @return number of rows written
+     */
+    public long writeStream(OutputStream out) throws IOException {
+        long start = rowCount;
+        try (ArrowStreamWriter writer = new ArrowStreamWriter(root, provider, out)) {
+            writer.start();
+            while (loadNextBatch()) {
+                writer.writeBatch();
+            }
+            writer.end();
+        }
+        return rowCount - start;
+    }
+
+    /**
+     * Writes the remaining rows as an Arrow IPC file. The file format allows a single dictionary
+     * per column, the batches are kept in memory until the dictionaries are complete.
+     * The channel is closed.
+     *
+     * @return number of rows written
+     */
+    public long writeFile(WritableByteChannel out) throws IOException {
+        long start = rowCount;
+        List<ArrowRecordBatch> batches = new ArrayList<>();
+        try {
+            VectorUnloader unloader = new VectorUnloader(root);
+            while (loadNextBatch()) {
+                batches.add(unloader.getRecordBatch());
+            }
+            VectorLoader loader = new VectorLoader(root);
+            try (ArrowFileWriter writer = new ArrowFileWriter(root, provider, out)) {
+                writer.start();
+                for (ArrowRecordBatch next : batches) {
+                    loader.load(next);
+                    writer.writeBatch();
+                }
+                writer.end();
+            }
+        } finally {
+            for (ArrowRecordBatch next : batches) {
+                next.close();
+            }
+        }
+        return rowCount - start;
+    }
+
+    public VectorSchemaRoot getVectorSchemaRoot() {
+        return root;
+    }
+
+    /**
+     * Dictionaries of the series, metric and tag columns, they grow with the batches.
+     */
+    public DictionaryProvider getDictionaryProvider() {
+        return provider;
+    }
+
+    public List<String> getTags() {
+        return Collections.unmodifiableList(tags);
+    }
+
+    public List<String> getValueNames() {
+        return Collections.unmodifiableList(valueNames);
+    }
+
+    /**
+     * Number of rows loaded.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Releases the vectors and the dictionaries, the cursor is not closed.
+     */
+    @Override
+    public void close() {
+        root.close();
+        seriesDictionary.close();
+        metricDictionary.close();
+        for (VarCharVector next : tagDictionaries) {
+            next.close();
+        }
+    }
+
+    private static void close(VarCharVector vector) {
+        if (vector != null) {
+            vector.close();
+        }
+    }
+
+    private VarCharVector dictionary(String name, DictionaryEncoding encoding, BufferAllocator allocator) {
+        VarCharVector vector = new VarCharVector(name + "-dictionary", allocator);
+        try {
+            vector.allocateNew();
+        } catch (RuntimeException e) {
+            vector.close();
+            throw e;
+        }
+        vector.setValueCount(0);
+        provider.put(new Dictionary(vector, encoding));
+        return vector;
+    }
+
+    /**
+     * Adds the series of a cursor series id to the dictionaries, ids are dense and increasing.
+     */
+    private void resolve(int seriesId) {
+        while (seriesCount <= seriesId) {
+            int id = seriesCount;
+            String series = cursor.getSeries(id);
+            ParsedSeries parsed = series == null ? null : SeriesParser.parse(series);
+            if (id >= seriesMetrics.length) {
+                seriesMetrics = copyOf(seriesMetrics, seriesMetrics.length * 2);
+                seriesTags = copyOf(seriesTags, seriesTags.length * 2);
+            }
+            seriesDictionary.setSafe(id, (series == null ? "" : series).getBytes(UTF_8));
+            seriesDictionary.setValueCount(id + 1);
+            seriesMetrics[id] = index(metricIndexes, metricDictionary, parsed == null ? "" : parsed.getMetric());
+            if (inferredTags && parsed != null) {
+                for (String next : parsed.getTagMap().keySet()) {
+                    if (!tags.contains(next)) {
+                        throw new IllegalStateException("tag [" + next + "] of series [" + series
+                                + "] is not in the first batch, pass the tags to the constructor");
+                    }
+                }
+            }
+            int[] indexes = new int[tags.size()];
+            for (int t = 0; t < indexes.length; t++) {
+                String value = parsed == null ? null : parsed.getTag(tags.get(t));
+                indexes[t] = value == null ? -1 : index(tagIndexes.get(t), tagDictionaries[t], value);
+            }
+            seriesTags[id] = indexes;
+            seriesCount += 1;
+        }
+    }
+
+    private static int index(Map<String, Integer> indexes, VarCharVector dictionary, String value) {
+        Integer index = indexes.get(value);
+        if (index == null) {
+            index = indexes.size();
+            dictionary.setSafe(index, value.getBytes(UTF_8));
+            dictionary.setValueCount(index + 1);
+            indexes.put(value, index);
+        }
+        return index;
+    }
+
+    private List<String> firstBatchTags() {
+        TreeSet<String> names = new TreeSet<>();
+        for (int i = 0; i < batch.size(); i++) {
+            String series = cursor.getSeries(batch.getSeriesIds()[i]);
+            if (series != null) {
+                names.addAll(SeriesParser.parse(series).getTagMap().keySet());
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    private List<String> firstBatchValueNames() {
+        List<String> names = new ArrayList<>();
+        if (batch.size() == 0) {
+            names.add("value");
+            return names;
+        }
+        String series = cursor.getSeries(batch.getSeriesIds()[0]);
+        ParsedSeries parsed = series == null ? null : SeriesParser.parse(series);
+        int valueCount = 1;
+        for (int i = 0; i < batch.size(); i++) {
+            valueCount = Math.max(valueCount, batch.getValueCount(i));
+        }
+        for (int i = 0; i < valueCount; i++) {
+            if (parsed != null && i < parsed.getAggregateFunctions().size()) {
+                names.add(parsed.getAggregateFunctions().get(i).name());
+            } else if (parsed != null && parsed.getMetrics().size() > 1 && i < parsed.getMetrics().size()) {
+                names.add(parsed.getMetrics().get(i));
+            } else {
+                names.add(valueCount == 1 ? "value" : "value" + i);
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public String toString() {
+        return "ArrowExporter [tags=" + tags + ", values=" + valueNames + ", rows=" + rowCount + "]";
+    }
+}
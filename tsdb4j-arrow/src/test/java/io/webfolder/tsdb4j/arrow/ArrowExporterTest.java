@@ -0,0 +1,122 @@
+package io.webfolder.tsdb4j.arrow;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeStampNanoVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.webfolder.tsdb4j.Database;
+import io.webfolder.tsdb4j.OrderBy;
+import io.webfolder.tsdb4j.SelectCriteria;
+import io.webfolder.tsdb4j.Session;
+import io.webfolder.tsdb4j.SimpleCursor;
+import io.webfolder.tsdb4j.TimeUtils;
+
+public class ArrowExporterTest {
+
+    @Test
+    public void t01_export() throws IOException {
+        Path path = Files.createTempDirectory("tsdb4j");
+        Database db = new Database(path, "test");
+        db.create(2, 1024 * 1024, true);
+        db.open();
+        long now = TimeUtils.toEpoch(Instant.now());
+        try (Session session = db.createSession()) {
+            for (int i = 0; i < 10_000; i++) {
+                session.add(now + i, "mem server=" + (i % 2), i);
+            }
+        }
+        SelectCriteria criteria = SelectCriteria.builder()
+                                        .select("mem")
+                                        .from(now)
+                                        .to(now + 10_000)
+                                    .build();
+        try (BufferAllocator allocator = new RootAllocator(); Session session = db.createSession()) {
+            SimpleCursor cursor = session.query(criteria);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (ArrowExporter exporter = new ArrowExporter(cursor, allocator, 1024, null)) {
+                Assert.assertEquals(Arrays.asList("server"), exporter.getTags());
+                Assert.assertEquals(Arrays.asList("value"), exporter.getValueNames());
+                Assert.assertEquals(10_000, exporter.writeStream(out));
+            }
+            cursor.close();
+
+            int rows = 0;
+            double sum = 0;
+            try (ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(out.toByteArray()), allocator)) {
+                VectorSchemaRoot root = reader.getVectorSchemaRoot();
+                while (reader.loadNextBatch()) {
+                    TimeStampNanoVector timestamps = (TimeStampNanoVector) root.getVector("timestamp");
+                    IntVector servers = (IntVector) root.getVector("server");
+                    Float8Vector values = (Float8Vector) root.getVector("value");
+                    for (int i = 0; i < root.getRowCount(); i++) {
+                        Assert.assertTrue(timestamps.get(i) >= now);
+                        Assert.assertFalse(servers.isNull(i));
+                        sum += values.get(i);
+                        rows += 1;
+                    }
+                }
+                Assert.assertEquals(2, reader.getDictionaryVectors().get(2L).getVector().getValueCount());
+            }
+            Assert.assertEquals(10_000, rows);
+            Assert.assertEquals(10_000 * 9_999 / 2, sum, 0);
+        }
+        db.close();
+        db.delete();
+        Files.deleteIfExists(path);
+    }
+
+    @Test
+    public void t02_lateTag() throws IOException {
+        Path path = Files.createTempDirectory("tsdb4j");
+        Database db = new Database(path, "test");
+        db.create(2, 1024 * 1024, true);
+        db.open();
+        long now = TimeUtils.toEpoch(Instant.now());
+        try (Session session = db.createSession()) {
+            for (int i = 0; i < 10; i++) {
+                session.add(now + i, "mem server=0", i);
+            }
+            session.add(now + 100, "mem server=1 dc=eu", 100);
+        }
+        SelectCriteria criteria = SelectCriteria.builder()
+                                        .select("mem")
+                                        .from(now)
+                                        .to(now + 1_000)
+                                        .orderBy(OrderBy.time)
+                                    .build();
+        try (BufferAllocator allocator = new RootAllocator(); Session session = db.createSession()) {
+            SimpleCursor cursor = session.query(criteria);
+            try (ArrowExporter exporter = new ArrowExporter(cursor, allocator, 4, null)) {
+                Assert.assertEquals(Arrays.asList("server"), exporter.getTags());
+                exporter.writeStream(new ByteArrayOutputStream());
+                Assert.fail("tag [dc] is not in the schema");
+            } catch (IllegalStateException e) {
+                Assert.assertTrue(e.getMessage().startsWith("tag [dc]"));
+            }
+            cursor.close();
+
+            cursor = session.query(criteria);
+            try (ArrowExporter exporter = new ArrowExporter(cursor, allocator, 4, Arrays.asList("server"))) {
+                Assert.assertEquals(11, exporter.writeStream(new ByteArrayOutputStream()));
+            }
+            cursor.close();
+        }
+        db.close();
+        db.delete();
+        Files.deleteIfExists(path);
+    }
+}